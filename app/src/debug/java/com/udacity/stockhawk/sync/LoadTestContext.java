@@ -0,0 +1,163 @@
+package com.udacity.stockhawk.sync;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.test.mock.MockContentResolver;
+
+import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.StockProvider;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gives the load test its own copy of everything the sync path writes to: a separate database
+ * behind an in-process {@link StockProvider}, and separate preferences, cache and files
+ * directories. Broadcasts and scheduled jobs are dropped, so a run never reaches the app's
+ * widgets or its real retry job.
+ */
+final class LoadTestContext extends ContextWrapper {
+
+    private static final String PREFIX = "loadtest_";
+    private static final String DIRECTORY = "loadtest";
+
+    private final CountingContentResolver resolver;
+    private final JobScheduler jobScheduler = new DisabledJobScheduler();
+
+    LoadTestContext(Context base) {
+        super(base);
+        StockProvider provider = new StockProvider();
+        provider.attachInfo(this, null);
+        resolver = new CountingContentResolver(this);
+        resolver.addProvider(Contract.AUTHORITY, provider);
+    }
+
+    int getNotifyCount() {
+        return resolver.notifyCount.get();
+    }
+
+    void resetNotifyCount() {
+        resolver.notifyCount.set(0);
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public MockContentResolver getContentResolver() {
+        return resolver;
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return super.getSharedPreferences(PREFIX + name, mode);
+    }
+
+    @Override
+    public File getDatabasePath(String name) {
+        return super.getDatabasePath(PREFIX + name);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory) {
+        return super.openOrCreateDatabase(PREFIX + name, mode, factory);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory,
+                                               DatabaseErrorHandler errorHandler) {
+        return super.openOrCreateDatabase(PREFIX + name, mode, factory, errorHandler);
+    }
+
+    @Override
+    public boolean deleteDatabase(String name) {
+        return super.deleteDatabase(PREFIX + name);
+    }
+
+    @Override
+    public File getCacheDir() {
+        return subdirectory(super.getCacheDir());
+    }
+
+    @Override
+    public File getFilesDir() {
+        return subdirectory(super.getFilesDir());
+    }
+
+    @Override
+    public void sendBroadcast(Intent intent) {
+    }
+
+    @Override
+    public Object getSystemService(String name) {
+        if (JOB_SCHEDULER_SERVICE.equals(name)) {
+            return jobScheduler;
+        }
+        return super.getSystemService(name);
+    }
+
+    private static File subdirectory(File parent) {
+        File directory = new File(parent, DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Could not create " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Counts the change notifications the provider sends instead of delivering them.
+     */
+    private static final class CountingContentResolver extends MockContentResolver {
+
+        final AtomicInteger notifyCount = new AtomicInteger();
+
+        CountingContentResolver(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void notifyChange(@NonNull Uri uri, ContentObserver observer, boolean syncToNetwork) {
+            notifyCount.incrementAndGet();
+        }
+    }
+
+    private static final class DisabledJobScheduler extends JobScheduler {
+
+        @Override
+        public int schedule(@NonNull JobInfo job) {
+            return RESULT_SUCCESS;
+        }
+
+        @Override
+        public void cancel(int jobId) {
+        }
+
+        @Override
+        public void cancelAll() {
+        }
+
+        @NonNull
+        @Override
+        public List<JobInfo> getAllPendingJobs() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public JobInfo getPendingJob(int jobId) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.udacity.stockhawk.sync;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import timber.log.Timber;
+
+/**
+ * Local stand-in for the Yahoo quotes and history CSV endpoints, with configurable latency,
+ * error rate and history payload size. Every symbol is valid; prices are derived from the symbol
+ * so repeated runs see the same data.
+ */
+final class SimulatedQuoteServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern QUOTE_TAG = Pattern.compile("[a-z][0-9]?");
+    private static final String PATH_QUOTES = "/quotes.csv";
+    private static final String PATH_HISTORY = "/table.csv";
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService workers = Executors.newFixedThreadPool(8);
+    private final Random random = new Random();
+
+    volatile int latencyMillis;
+    volatile float errorRate;
+    volatile int historyRows = 104;
+
+    final AtomicInteger requestCount = new AtomicInteger();
+    final AtomicInteger errorCount = new AtomicInteger();
+
+    SimulatedQuoteServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "SimulatedQuoteServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    String getQuotesUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + PATH_QUOTES;
+    }
+
+    String getHistoryUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + PATH_HISTORY;
+    }
+
+    void resetCounters() {
+        requestCount.set(0);
+        errorCount.set(0);
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(socket);
+                    }
+                });
+            } catch (IOException exception) {
+                Timber.w(exception, "Simulated server stopped accepting");
+                return;
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+            String requestLine = in.readLine();
+            String header;
+            do {
+                header = in.readLine();
+            } while (header != null && !header.isEmpty());
+
+            requestCount.incrementAndGet();
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+
+            OutputStream out = socket.getOutputStream();
+            if (requestLine == null || random.nextFloat() < errorRate) {
+                errorCount.incrementAndGet();
+                respond(out, 500, "");
+                return;
+            }
+
+            String target = requestLine.split(" ")[1];
+            int queryStart = target.indexOf('?');
+            String path = queryStart < 0 ? target : target.substring(0, queryStart);
+            Map<String, String> query = parseQuery(queryStart < 0 ? "" : target.substring(queryStart + 1));
+
+            if (PATH_QUOTES.equals(path)) {
+                respond(out, 200, quotesBody(query));
+            } else if (PATH_HISTORY.equals(path)) {
+                respond(out, 200, historyBody(query));
+            } else {
+                respond(out, 404, "");
+            }
+        } catch (IOException | InterruptedException exception) {
+            Timber.w(exception, "Simulated request failed");
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void respond(OutputStream out, int status, String body) throws IOException {
+        byte[] payload = body.getBytes(UTF_8);
+        String headers = "HTTP/1.1 " + status + (status == 200 ? " OK" : " Error") + "\r\n"
+                + "Content-Type: text/csv\r\n"
+                + "Content-Length: " + payload.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        out.write(headers.getBytes(UTF_8));
+        out.write(payload);
+        out.flush();
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                params.put(pair.substring(0, separator),
+                        URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static float basePrice(String symbol) {
+        return 10f + (symbol.hashCode() & 0x7FFFFFFF) % 990;
+    }
+
+    private String quotesBody(Map<String, String> query) {
+        String symbols = query.get("s");
+        String tags = query.get("f");
+        if (symbols == null || tags == null) {
+            return "";
+        }
+
+        StringBuilder body = new StringBuilder();
+        for (String symbol : symbols.split("[+ ,]")) {
+            if (symbol.isEmpty()) {
+                continue;
+            }
+            float price = basePrice(symbol) * (0.95f + random.nextFloat() * 0.1f);
+            float change = price - basePrice(symbol);
+            float percentChange = change * 100f / basePrice(symbol);
+
+            Matcher matcher = QUOTE_TAG.matcher(tags);
+            boolean first = true;
+            while (matcher.find()) {
+                if (!first) {
+                    body.append(',');
+                }
+                first = false;
+                body.append(quoteValue(matcher.group(), symbol, price, change, percentChange));
+            }
+            body.append('\n');
+        }
+        return body.toString();
+    }
+
+    private static String quoteValue(String tag, String symbol, float price, float change, float percentChange) {
+        switch (tag) {
+            case "s":
+                return '"' + symbol + '"';
+            case "n":
+                return "\"Simulated " + symbol + "\"";
+            case "c4":
+                return "\"USD\"";
+            case "x":
+                return "\"NMS\"";
+            case "l1":
+            case "o":
+            case "p":
+            case "h":
+            case "g":
+                return String.format(Locale.US, "%.2f", price);
+            case "c1":
+                return String.format(Locale.US, "%+.2f", change);
+            case "p2":
+                return String.format(Locale.US, "\"%+.2f%%\"", percentChange);
+            default:
+                return "N/A";
+        }
+    }
+
+    private String historyBody(Map<String, String> query) {
+        String symbol = query.get("s");
+        Calendar date = Calendar.getInstance();
+        try {
+            date.set(Integer.parseInt(query.get("f")), Integer.parseInt(query.get("d")),
+                    Integer.parseInt(query.get("e")));
+        } catch (NumberFormatException | NullPointerException ignored) {
+            // Fall back to today
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        float base = basePrice(symbol == null ? "" : symbol);
+        StringBuilder body = new StringBuilder("Date,Open,High,Low,Close,Volume,Adj Close\n");
+        for (int i = 0; i < historyRows; i++) {
+            float close = base * (0.8f + random.nextFloat() * 0.4f);
+            String price = String.format(Locale.US, "%.2f", close);
+            body.append(format.format(date.getTime())).append(',')
+                    .append(price).append(',')
+                    .append(price).append(',')
+                    .append(price).append(',')
+                    .append(price).append(',')
+                    .append(1000000 + random.nextInt(1000000)).append(',')
+                    .append(price).append('\n');
+            date.add(Calendar.WEEK_OF_YEAR, -1);
+        }
+        return body.toString();
+    }
+}
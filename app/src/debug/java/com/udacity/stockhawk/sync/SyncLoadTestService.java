@@ -0,0 +1,293 @@
+package com.udacity.stockhawk.sync;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.os.SystemClock;
+
+import com.udacity.stockhawk.data.Contract;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Runs the real sync path against {@link SimulatedQuoteServer} for a series of watchlist sizes
+ * and compares the results with a stored baseline. Everything the sync writes goes to the
+ * separate storage of {@link LoadTestContext}, never to the user's quotes or watchlists. Debug
+ * builds only, and only startable from the shell:
+ * <pre>
+ * adb shell am startservice -n com.udacity.stockhawk/.sync.SyncLoadTestService \
+ *     --eia symbolCounts 50,500,5000 --ei latencyMs 20 --ef errorRate 0.0 --ei historyRows 104
+ * </pre>
+ * Results are logged and written to {@code sync_loadtest.csv} in the app's external files
+ * directory. The first run (or a run with {@code --ez updateBaseline true}) stores the baseline
+ * in {@code sync_loadtest_baseline.csv}; later runs log every metric that regressed by more than
+ * {@link #TOLERANCE}.
+ * <p>
+ * Peak heap is sampled in this process, which does the fetching, parsing and database writes.
+ */
+public class SyncLoadTestService extends IntentService {
+
+    private static final String EXTRA_SYMBOL_COUNTS = "symbolCounts";
+    private static final String EXTRA_LATENCY_MS = "latencyMs";
+    private static final String EXTRA_ERROR_RATE = "errorRate";
+    private static final String EXTRA_HISTORY_ROWS = "historyRows";
+    private static final String EXTRA_UPDATE_BASELINE = "updateBaseline";
+
+    private static final int[] DEFAULT_SYMBOL_COUNTS = {50, 500, 5000};
+    // Yahoo symbols never contain '~', so simulated ones cannot be mistaken for real tickers
+    private static final String SYMBOL_PREFIX = "~SIM";
+    private static final String RESULTS_FILE = "sync_loadtest.csv";
+    private static final String BASELINE_FILE = "sync_loadtest_baseline.csv";
+    private static final String CSV_HEADER = "symbols,latencyMs,errorRate,historyRows,"
+            + "symbolsPerSecond,peakHeapKb,writeMillis,notifyCount,failures";
+    private static final float TOLERANCE = 0.2f;
+    private static final long HEAP_SAMPLE_INTERVAL = 20;
+
+    private static SimulatedQuoteServer server;
+
+    private LoadTestContext loadTestContext;
+
+    public SyncLoadTestService() {
+        super(SyncLoadTestService.class.getSimpleName());
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        try {
+            ensureServer();
+        } catch (IOException exception) {
+            Timber.e(exception, "Could not start simulated quote server");
+            return;
+        }
+
+        int[] symbolCounts = intent.getIntArrayExtra(EXTRA_SYMBOL_COUNTS);
+        if (symbolCounts == null) {
+            symbolCounts = DEFAULT_SYMBOL_COUNTS;
+        }
+        server.latencyMillis = intent.getIntExtra(EXTRA_LATENCY_MS, 0);
+        server.errorRate = intent.getFloatExtra(EXTRA_ERROR_RATE, 0f);
+        server.historyRows = intent.getIntExtra(EXTRA_HISTORY_ROWS, 104);
+
+        if (loadTestContext == null) {
+            loadTestContext = new LoadTestContext(getApplicationContext());
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (int symbolCount : symbolCounts) {
+            results.add(runScenario(symbolCount));
+        }
+
+        report(results, intent.getBooleanExtra(EXTRA_UPDATE_BASELINE, false));
+    }
+
+    private static synchronized void ensureServer() throws IOException {
+        if (server == null) {
+            server = new SimulatedQuoteServer();
+            // Read by the Yahoo client when its classes are first loaded in this process
+            System.setProperty("yahoofinance.baseurl.quotes", server.getQuotesUrl());
+            System.setProperty("yahoofinance.baseurl.histquotes", server.getHistoryUrl());
+        }
+    }
+
+    private Result runScenario(int symbolCount) {
+        Set<String> symbols = new LinkedHashSet<>();
+        for (int i = 0; i < symbolCount; i++) {
+            symbols.add(String.format(Locale.US, "%s%05d", SYMBOL_PREFIX, i));
+        }
+
+        // Every scenario measures real history downloads
+        new HistoryCache(loadTestContext).clear();
+        loadTestContext.resetNotifyCount();
+
+        HeapSampler heapSampler = new HeapSampler();
+        Thread samplerThread = new Thread(heapSampler, "LoadTestHeapSampler");
+        Runtime.getRuntime().gc();
+        samplerThread.start();
+        server.resetCounters();
+
+        QuoteSyncJob.syncStocks(loadTestContext, symbols, null);
+
+        heapSampler.stop();
+
+        SyncStats stats = SyncStats.last();
+        Result result = new Result(symbolCount, server.latencyMillis, server.errorRate, server.historyRows,
+                stats.symbolsPerSecond(), heapSampler.peakBytes / 1024, stats.writeMillis,
+                loadTestContext.getNotifyCount(), stats.failures);
+        Timber.i("Load test: %s (%d requests, %d injected errors)",
+                result.toCsv(), server.requestCount.get(), server.errorCount.get());
+
+        loadTestContext.getContentResolver().delete(Contract.Quote.URI,
+                Contract.Quote.COLUMN_SYMBOL + " LIKE ?", new String[]{SYMBOL_PREFIX + "%"});
+
+        return result;
+    }
+
+    private void report(List<Result> results, boolean updateBaseline) {
+        File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            directory = getFilesDir();
+        }
+        File baselineFile = new File(directory, BASELINE_FILE);
+
+        try {
+            writeResults(new File(directory, RESULTS_FILE), results);
+
+            if (updateBaseline || !baselineFile.exists()) {
+                writeResults(baselineFile, results);
+                Timber.i("Load test baseline written to %s", baselineFile);
+                return;
+            }
+
+            Map<String, Result> baseline = readResults(baselineFile);
+            int regressions = 0;
+            for (Result result : results) {
+                Result expected = baseline.get(result.key());
+                if (expected == null) {
+                    Timber.i("No baseline for %s", result.key());
+                    continue;
+                }
+                regressions += compare(result.key(), "symbolsPerSecond",
+                        expected.symbolsPerSecond, result.symbolsPerSecond, false);
+                regressions += compare(result.key(), "peakHeapKb",
+                        expected.peakHeapKb, result.peakHeapKb, true);
+                regressions += compare(result.key(), "writeMillis",
+                        expected.writeMillis, result.writeMillis, true);
+                regressions += compare(result.key(), "notifyCount",
+                        expected.notifyCount, result.notifyCount, true);
+            }
+            if (regressions == 0) {
+                Timber.i("Load test passed against baseline");
+            } else {
+                Timber.e("Load test found %d regressions against baseline", regressions);
+            }
+        } catch (IOException exception) {
+            Timber.e(exception, "Could not write load test results");
+        }
+    }
+
+    private static int compare(String key, String metric, float expected, float actual, boolean lowerIsBetter) {
+        boolean regressed = lowerIsBetter
+                ? actual > expected * (1 + TOLERANCE)
+                : actual < expected * (1 - TOLERANCE);
+        if (regressed) {
+            Timber.e("Regression in %s for %s: baseline %.1f, now %.1f", metric, key, expected, actual);
+            return 1;
+        }
+        return 0;
+    }
+
+    private static void writeResults(File file, List<Result> results) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writer.println(CSV_HEADER);
+            for (Result result : results) {
+                writer.println(result.toCsv());
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static Map<String, Result> readResults(File file) throws IOException {
+        Map<String, Result> results = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                Result result = Result.fromCsv(line);
+                if (result != null) {
+                    results.put(result.key(), result);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return results;
+    }
+
+    private static final class HeapSampler implements Runnable {
+
+        private volatile boolean running = true;
+        volatile long peakBytes;
+
+        @Override
+        public void run() {
+            Runtime runtime = Runtime.getRuntime();
+            while (running) {
+                long used = runtime.totalMemory() - runtime.freeMemory();
+                if (used > peakBytes) {
+                    peakBytes = used;
+                }
+                SystemClock.sleep(HEAP_SAMPLE_INTERVAL);
+            }
+        }
+
+        void stop() {
+            running = false;
+        }
+    }
+
+    private static final class Result {
+
+        final int symbols;
+        final int latencyMillis;
+        final float errorRate;
+        final int historyRows;
+        final float symbolsPerSecond;
+        final long peakHeapKb;
+        final long writeMillis;
+        final int notifyCount;
+        final int failures;
+
+        Result(int symbols, int latencyMillis, float errorRate, int historyRows, float symbolsPerSecond,
+               long peakHeapKb, long writeMillis, int notifyCount, int failures) {
+            this.symbols = symbols;
+            this.latencyMillis = latencyMillis;
+            this.errorRate = errorRate;
+            this.historyRows = historyRows;
+            this.symbolsPerSecond = symbolsPerSecond;
+            this.peakHeapKb = peakHeapKb;
+            this.writeMillis = writeMillis;
+            this.notifyCount = notifyCount;
+            this.failures = failures;
+        }
+
+        String key() {
+            return String.format(Locale.US, "%d/%d/%.3f/%d", symbols, latencyMillis, errorRate, historyRows);
+        }
+
+        String toCsv() {
+            return String.format(Locale.US, "%d,%d,%.3f,%d,%.2f,%d,%d,%d,%d", symbols, latencyMillis,
+                    errorRate, historyRows, symbolsPerSecond, peakHeapKb, writeMillis, notifyCount, failures);
+        }
+
+        static Result fromCsv(String line) {
+            String[] fields = line.split(",");
+            if (fields.length < 9) {
+                return null;
+            }
+            try {
+                return new Result(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                        Float.parseFloat(fields[2]), Integer.parseInt(fields[3]),
+                        Float.parseFloat(fields[4]), Long.parseLong(fields[5]),
+                        Long.parseLong(fields[6]), Integer.parseInt(fields[7]),
+                        Integer.parseInt(fields[8]));
+            } catch (NumberFormatException exception) {
+                return null;
+            }
+        }
+    }
+}
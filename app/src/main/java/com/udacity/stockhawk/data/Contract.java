@@ -8,9 +8,17 @@ import com.google.common.collect.ImmutableList;
 
 public final class Contract {
 
-    static final String AUTHORITY = "com.udacity.stockhawk";
+    public static final String AUTHORITY = "com.udacity.stockhawk";
     static final String PATH_QUOTE = "quote";
     static final String PATH_QUOTE_WITH_SYMBOL = "quote/*";
+    static final String PATH_SEARCH = "search";
+    static final String PATH_SEARCH_WITH_QUERY = "search/*";
+    static final String PATH_WATCHLIST = "watchlist";
+    static final String PATH_WATCHLIST_WITH_ID = "watchlist/#";
+    static final String PATH_MEMBER = "member";
+    static final String PATH_WATCHLIST_MEMBERS_ALL = "watchlist/member";
+    static final String PATH_WATCHLIST_MEMBERS = "watchlist/#/member";
+    static final String PATH_WATCHLIST_QUOTES = "watchlist/#/quote";
     private static final Uri BASE_URI = Uri.parse("content://" + AUTHORITY);
 
     private Contract() {
@@ -25,13 +33,23 @@ public final class Contract {
         public static final String COLUMN_ABSOLUTE_CHANGE = "absolute_change";
         public static final String COLUMN_PERCENTAGE_CHANGE = "percentage_change";
         public static final String COLUMN_HISTORY = "history";
+        public static final String COLUMN_HISTORY_END = "history_end";
+        public static final String COLUMN_NAME = "name";
+        public static final String COLUMN_LAST_UPDATED = "last_updated";
+        public static final String COLUMN_SHARES_OUTSTANDING = "shares_outstanding";
         public static final int POSITION_ID = 0;
         public static final int POSITION_SYMBOL = 1;
         public static final int POSITION_PRICE = 2;
         public static final int POSITION_ABSOLUTE_CHANGE = 3;
         public static final int POSITION_PERCENTAGE_CHANGE = 4;
         public static final int POSITION_HISTORY = 5;
-        public static final String INVALID_STOCK_HISTORY_MARKER = "noHistory";
+        // Position within LIST_COLUMNS
+        public static final int POSITION_HISTORY_END = 5;
+        public static final long HISTORY_END_INVALID = -1L;
+        // Quote row of the synthetic index over the stocks of all watchlists, maintained by the provider
+        public static final String INDEX_SYMBOL = "^WATCHLIST";
+        // History text of invalid stocks before histories were stored with HistoryCodec
+        static final String INVALID_STOCK_HISTORY_MARKER = "noHistory";
         public static final ImmutableList<String> QUOTE_COLUMNS = ImmutableList.of(
                 _ID,
                 COLUMN_SYMBOL,
@@ -40,12 +58,67 @@ public final class Contract {
                 COLUMN_PERCENTAGE_CHANGE,
                 COLUMN_HISTORY
         );
+        // Everything the list needs without the history itself, which is loaded per symbol
+        public static final ImmutableList<String> LIST_COLUMNS = ImmutableList.of(
+                _ID,
+                COLUMN_SYMBOL,
+                COLUMN_PRICE,
+                COLUMN_ABSOLUTE_CHANGE,
+                COLUMN_PERCENTAGE_CHANGE,
+                COLUMN_HISTORY_END
+        );
         static final String TABLE_NAME = "quotes";
 
+        // Query parameters understood by URI
+        public static final String PARAM_SORT = "sort";
+        public static final String PARAM_ORDER = "order";
+        public static final String PARAM_LIMIT = "limit";
+        public static final String PARAM_OFFSET = "offset";
+        public static final String PARAM_FILTER = "filter";
+        public static final String ORDER_ASCENDING = "asc";
+        public static final String ORDER_DESCENDING = "desc";
+        public static final String FILTER_GAINERS = "gainers";
+        public static final String FILTER_LOSERS = "losers";
+        // Columns PARAM_SORT accepts; each is indexed
+        static final ImmutableList<String> SORTABLE_COLUMNS = ImmutableList.of(
+                COLUMN_SYMBOL,
+                COLUMN_PRICE,
+                COLUMN_ABSOLUTE_CHANGE,
+                COLUMN_PERCENTAGE_CHANGE
+        );
+
         public static Uri makeUriForStock(String symbol) {
             return URI.buildUpon().appendPath(symbol).build();
         }
 
+        public static Uri makeUriForSorted(String column, boolean descending, int limit, int offset) {
+            return URI.buildUpon()
+                    .appendQueryParameter(PARAM_SORT, column)
+                    .appendQueryParameter(PARAM_ORDER, descending ? ORDER_DESCENDING : ORDER_ASCENDING)
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .appendQueryParameter(PARAM_OFFSET, Integer.toString(offset))
+                    .build();
+        }
+
+        /**
+         * The {@code limit} biggest percentage gainers or losers of the day, biggest move first.
+         */
+        public static Uri makeUriForTopMovers(boolean gainers, int limit) {
+            return URI.buildUpon()
+                    .appendQueryParameter(PARAM_FILTER, gainers ? FILTER_GAINERS : FILTER_LOSERS)
+                    .appendQueryParameter(PARAM_SORT, COLUMN_PERCENTAGE_CHANGE)
+                    .appendQueryParameter(PARAM_ORDER, gainers ? ORDER_DESCENDING : ORDER_ASCENDING)
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        /**
+         * Quotes whose symbol or a word of whose name starts with the query, best matches first.
+         */
+        public static Uri makeUriForSearch(String query) {
+            return BASE_URI.buildUpon().appendPath(PATH_SEARCH).appendPath(query).build();
+        }
+
         static String getStockFromUri(Uri queryUri) {
             return queryUri.getLastPathSegment();
         }
@@ -53,4 +126,85 @@ public final class Contract {
 
     }
 
+    /**
+     * Named watchlists. Members point into {@link Quote}, so a symbol on several lists has one
+     * quote row and is synced once; a quote is deleted with its last membership.
+     */
+    public static final class Watchlist implements BaseColumns {
+
+        public static final Uri URI = BASE_URI.buildUpon().appendPath(PATH_WATCHLIST).build();
+        // Symbols on any watchlist, each once
+        public static final Uri MEMBERS_URI = URI.buildUpon().appendPath(PATH_MEMBER).build();
+        public static final String COLUMN_NAME = "name";
+        // Column of the member URIs
+        public static final String COLUMN_SYMBOL = "symbol";
+        // The list the single watchlist of earlier versions was migrated into
+        public static final long DEFAULT_ID = 1;
+        static final String TABLE_NAME = "watchlists";
+        static final String MEMBERS_TABLE_NAME = "watchlist_members";
+        static final String COLUMN_WATCHLIST_ID = "watchlist_id";
+
+        private Watchlist() {
+        }
+
+        /**
+         * Deleting a list takes its members with it; updating renames it.
+         */
+        public static Uri makeUriForWatchlist(long id) {
+            return URI.buildUpon().appendPath(Long.toString(id)).build();
+        }
+
+        /**
+         * Quotes of the list's members for the list view, plus the index row. The index covers
+         * the stocks of all lists, not only this one.
+         */
+        public static Uri makeUriForQuotes(long id) {
+            return URI.buildUpon().appendPath(Long.toString(id)).appendPath(PATH_QUOTE).build();
+        }
+
+        public static Uri makeUriForMembers(long id) {
+            return URI.buildUpon().appendPath(Long.toString(id)).appendPath(PATH_MEMBER).build();
+        }
+
+        static String getIdFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /**
+     * Arguments and results of the provider's storage maintenance, run through
+     * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)}.
+     */
+    public static final class Maintenance {
+
+        public static final String METHOD_MAINTAIN = "maintain";
+        // Symbols on the watchlist; every other quote except the index is deleted
+        public static final String EXTRA_WATCHED_SYMBOLS = "watchedSymbols";
+        // History points dated before this time in millis are dropped
+        public static final String EXTRA_HISTORY_CUTOFF = "historyCutoff";
+        public static final String RESULT_ORPHANS_DELETED = "orphansDeleted";
+        public static final String RESULT_HISTORIES_TRIMMED = "historiesTrimmed";
+        public static final String RESULT_BYTES_RECLAIMED = "bytesReclaimed";
+
+        private Maintenance() {
+        }
+    }
+
+    /**
+     * Prefix index over quote symbols and company names. Each row is one lower-cased term; a
+     * lower weight ranks higher.
+     */
+    static final class SearchTerm {
+
+        static final String TABLE_NAME = "search_terms";
+        static final String COLUMN_TERM = "term";
+        static final String COLUMN_SYMBOL = "symbol";
+        static final String COLUMN_WEIGHT = "weight";
+        static final int WEIGHT_SYMBOL = 0;
+        static final int WEIGHT_NAME = 1;
+
+        private SearchTerm() {
+        }
+    }
+
 }
@@ -0,0 +1,172 @@
+package com.udacity.stockhawk.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Pairwise correlation of weekly log returns. All series are first aligned on the union of
+ * their dates, with NaN where a symbol has no close, so every pair is compared over the weeks
+ * both have data for. Rows of the matrix are computed in parallel on a fork-join pool sized to
+ * the number of cores.
+ */
+public final class CorrelationEngine {
+
+    // Fewer common returns than this give a meaningless coefficient, reported as NaN
+    static final int MIN_OVERLAP = 8;
+    private static final int ROWS_PER_TASK = 8;
+
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private CorrelationEngine() {
+    }
+
+    public static Matrix compute(String[] symbols, HistoryCodec.History[] histories) {
+        int n = symbols.length;
+        long[] grid = unionOfDates(histories);
+
+        float[][] returns = new float[n][];
+        for (int i = 0; i < n; i++) {
+            returns[i] = alignedReturns(histories[i], grid);
+        }
+
+        float[] values = new float[n * n];
+        pool.invoke(new RowTask(returns, values, 0, n));
+        return new Matrix(symbols, values);
+    }
+
+    private static long[] unionOfDates(HistoryCodec.History[] histories) {
+        int total = 0;
+        for (HistoryCodec.History history : histories) {
+            total += history.size();
+        }
+        long[] dates = new long[total];
+        int offset = 0;
+        for (HistoryCodec.History history : histories) {
+            System.arraycopy(history.dates, 0, dates, offset, history.size());
+            offset += history.size();
+        }
+        Arrays.sort(dates);
+
+        int unique = 0;
+        for (int i = 0; i < total; i++) {
+            if (unique == 0 || dates[i] != dates[unique - 1]) {
+                dates[unique++] = dates[i];
+            }
+        }
+        return Arrays.copyOf(dates, unique);
+    }
+
+    /**
+     * @return log returns between consecutive grid dates, NaN where either close is missing
+     */
+    private static float[] alignedReturns(HistoryCodec.History history, long[] grid) {
+        float[] closes = new float[grid.length];
+        Arrays.fill(closes, Float.NaN);
+        for (int i = 0; i < history.size(); i++) {
+            closes[Arrays.binarySearch(grid, history.dates[i])] = history.closes[i];
+        }
+
+        float[] returns = new float[Math.max(grid.length - 1, 0)];
+        for (int t = 0; t < returns.length; t++) {
+            float previous = closes[t];
+            float current = closes[t + 1];
+            returns[t] = previous > 0 && current > 0
+                    ? (float) Math.log(current / previous)
+                    : Float.NaN;
+        }
+        return returns;
+    }
+
+    static float correlation(float[] x, float[] y) {
+        int count = 0;
+        double sumX = 0;
+        double sumY = 0;
+        double sumXX = 0;
+        double sumYY = 0;
+        double sumXY = 0;
+        for (int t = 0; t < x.length; t++) {
+            float a = x[t];
+            float b = y[t];
+            // NaN fails every comparison, so this skips weeks missing in either series
+            if (a == a && b == b) {
+                count++;
+                sumX += a;
+                sumY += b;
+                sumXX += a * a;
+                sumYY += b * b;
+                sumXY += a * b;
+            }
+        }
+        if (count < MIN_OVERLAP) {
+            return Float.NaN;
+        }
+        double covariance = sumXY - sumX * sumY / count;
+        double varianceX = sumXX - sumX * sumX / count;
+        double varianceY = sumYY - sumY * sumY / count;
+        if (varianceX <= 0 || varianceY <= 0) {
+            return Float.NaN;
+        }
+        return (float) (covariance / Math.sqrt(varianceX * varianceY));
+    }
+
+    /**
+     * Fills rows [from, to) of the upper triangle and mirrors them into the lower one.
+     */
+    private static final class RowTask extends RecursiveAction {
+
+        private final float[][] returns;
+        private final float[] values;
+        private final int from;
+        private final int to;
+
+        RowTask(float[][] returns, float[] values, int from, int to) {
+            this.returns = returns;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RowTask(returns, values, from, middle),
+                        new RowTask(returns, values, middle, to));
+                return;
+            }
+
+            int n = returns.length;
+            for (int i = from; i < to; i++) {
+                values[i * n + i] = 1f;
+                for (int j = i + 1; j < n; j++) {
+                    float value = correlation(returns[i], returns[j]);
+                    values[i * n + j] = value;
+                    values[j * n + i] = value;
+                }
+            }
+        }
+    }
+
+    public static final class Matrix {
+
+        public final String[] symbols;
+        private final float[] values;
+
+        Matrix(String[] symbols, float[] values) {
+            this.symbols = symbols;
+            this.values = values;
+        }
+
+        public int size() {
+            return symbols.length;
+        }
+
+        /**
+         * @return the correlation of symbols i and j, or NaN if they overlap too little
+         */
+        public float get(int i, int j) {
+            return values[i * symbols.length + j];
+        }
+    }
+}
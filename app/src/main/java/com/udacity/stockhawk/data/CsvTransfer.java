@@ -0,0 +1,308 @@
+package com.udacity.stockhawk.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import au.com.bytecode.opencsv.CSVReader;
+import au.com.bytecode.opencsv.CSVWriter;
+
+/**
+ * Streams the watchlists, quotes and histories to and from CSV. Rows are written and read one at
+ * a time; on import at most {@link #BATCH_SIZE} quotes are held before they are committed
+ * together with their list memberships in a single applyBatch transaction, so a failed import
+ * leaves no quote without its lists.
+ * <p>
+ * Records: a header {@code #stockhawk,<version>}, then for each list an {@code L,<name>} row
+ * followed by one {@code W,<symbol>} per member, then for each quote a
+ * {@code Q,<symbol>,<price>,<absolute change>,<percentage change>,<name>,<last updated millis>,<shares outstanding>}
+ * row followed by its {@code H,<date millis>,<close>} history rows. Quote rows of older exports
+ * end after the percentage change. Version 1 files have no {@code L} rows; their symbols are all
+ * imported into the current list.
+ */
+public final class CsvTransfer {
+
+    private static final String HEADER = "#stockhawk";
+    private static final String VERSION = "2";
+    private static final String VERSION_SINGLE_LIST = "1";
+    private static final String RECORD_LIST = "L";
+    private static final String RECORD_WATCHLIST = "W";
+    private static final String RECORD_QUOTE = "Q";
+    private static final String RECORD_HISTORY = "H";
+    private static final int BATCH_SIZE = 50;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] EXPORT_COLUMNS = {
+            Contract.Quote.COLUMN_SYMBOL,
+            Contract.Quote.COLUMN_PRICE,
+            Contract.Quote.COLUMN_ABSOLUTE_CHANGE,
+            Contract.Quote.COLUMN_PERCENTAGE_CHANGE,
+            Contract.Quote.COLUMN_HISTORY,
+            Contract.Quote.COLUMN_NAME,
+            Contract.Quote.COLUMN_LAST_UPDATED,
+            Contract.Quote.COLUMN_SHARES_OUTSTANDING
+    };
+
+    private CsvTransfer() {
+    }
+
+    /**
+     * @return the number of quotes written
+     */
+    public static int exportTo(Context context, OutputStream outputStream) throws IOException {
+        CSVWriter writer = new CSVWriter(new BufferedWriter(new OutputStreamWriter(outputStream, UTF_8)));
+        int quoteCount = 0;
+        try {
+            writer.writeNext(new String[]{HEADER, VERSION});
+            for (Map.Entry<Long, String> list : Watchlists.getNames(context).entrySet()) {
+                writer.writeNext(new String[]{RECORD_LIST, list.getValue()});
+                for (String symbol : Watchlists.getStocks(context, list.getKey())) {
+                    writer.writeNext(new String[]{RECORD_WATCHLIST, symbol});
+                }
+            }
+
+            // The index row is rebuilt from the members, so it is not exported
+            Cursor cursor = context.getContentResolver().query(Contract.Quote.URI, EXPORT_COLUMNS,
+                    Contract.Quote.COLUMN_SYMBOL + " != ?", new String[]{Contract.Quote.INDEX_SYMBOL},
+                    Contract.Quote.COLUMN_SYMBOL);
+            if (cursor == null) {
+                return 0;
+            }
+            try {
+                String[] quoteRow = new String[8];
+                String[] historyRow = new String[3];
+                historyRow[0] = RECORD_HISTORY;
+                quoteRow[0] = RECORD_QUOTE;
+                while (cursor.moveToNext()) {
+                    quoteRow[1] = cursor.getString(0);
+                    quoteRow[2] = Float.toString(cursor.getFloat(1));
+                    quoteRow[3] = Float.toString(cursor.getFloat(2));
+                    quoteRow[4] = Float.toString(cursor.getFloat(3));
+                    quoteRow[5] = cursor.isNull(5) ? "" : cursor.getString(5);
+                    quoteRow[6] = Long.toString(cursor.getLong(6));
+                    quoteRow[7] = Long.toString(cursor.getLong(7));
+                    writer.writeNext(quoteRow);
+
+                    byte[] history = cursor.getBlob(4);
+                    if (!HistoryCodec.isInvalid(history)) {
+                        HistoryCodec.History points = HistoryCodec.decode(history);
+                        for (int i = 0; i < points.size(); i++) {
+                            historyRow[1] = Long.toString(points.dates[i]);
+                            historyRow[2] = Float.toString(points.closes[i]);
+                            writer.writeNext(historyRow);
+                        }
+                    }
+                    quoteCount++;
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            writer.close();
+        }
+        return quoteCount;
+    }
+
+    /**
+     * Members are added to the lists of the same name, which are created where missing; lists
+     * that are not in the file are left alone.
+     *
+     * @return the number of quotes imported
+     */
+    public static int importFrom(Context context, InputStream inputStream) throws IOException {
+        CSVReader reader = new CSVReader(new BufferedReader(new InputStreamReader(inputStream, UTF_8)));
+        int quoteCount = 0;
+        try {
+            String[] row = reader.readNext();
+            if (row == null || row.length < 2 || !HEADER.equals(row[0])
+                    || !(VERSION.equals(row[1]) || VERSION_SINGLE_LIST.equals(row[1]))) {
+                throw new IOException("Not a Stock Hawk export");
+            }
+            boolean singleList = VERSION_SINGLE_LIST.equals(row[1]);
+
+            // Members by list name; the current list is keyed by null
+            Map<String, Set<String>> lists = new LinkedHashMap<>();
+            Set<String> watchlist = new HashSet<>();
+            lists.put(null, watchlist);
+            Map<String, Long> ids = new HashMap<>();
+            List<ContentValues> batch = new ArrayList<>(BATCH_SIZE);
+            ContentValues current = null;
+            boolean skipHistory = false;
+            HistoryCodec.Builder history = new HistoryCodec.Builder();
+
+            while ((row = reader.readNext()) != null) {
+                if (row.length == 0) {
+                    continue;
+                }
+                switch (row[0]) {
+                    case RECORD_LIST:
+                        requireLength(row, 2);
+                        if (singleList) {
+                            throw new IOException("List record in a version " + VERSION_SINGLE_LIST + " file");
+                        }
+                        watchlist = lists.get(row[1]);
+                        if (watchlist == null) {
+                            watchlist = new HashSet<>();
+                            lists.put(row[1], watchlist);
+                        }
+                        break;
+                    case RECORD_WATCHLIST:
+                        requireLength(row, 2);
+                        watchlist.add(row[1]);
+                        break;
+                    case RECORD_QUOTE:
+                        requireLength(row, 5);
+                        if (current != null) {
+                            current.put(Contract.Quote.COLUMN_HISTORY, history.build());
+                            batch.add(current);
+                            quoteCount++;
+                            if (batch.size() == BATCH_SIZE) {
+                                commit(context, batch, lists, ids, false);
+                            }
+                        }
+                        history.clear();
+                        // Older exports included the index row, which is rebuilt instead
+                        skipHistory = Contract.Quote.INDEX_SYMBOL.equals(row[1]);
+                        if (skipHistory) {
+                            current = null;
+                            break;
+                        }
+                        current = new ContentValues();
+                        current.put(Contract.Quote.COLUMN_SYMBOL, row[1]);
+                        current.put(Contract.Quote.COLUMN_PRICE, parseFloat(row[2]));
+                        current.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, parseFloat(row[3]));
+                        current.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE, parseFloat(row[4]));
+                        if (row.length >= 8) {
+                            if (!row[5].isEmpty()) {
+                                current.put(Contract.Quote.COLUMN_NAME, row[5]);
+                            }
+                            current.put(Contract.Quote.COLUMN_LAST_UPDATED, Long.parseLong(row[6].trim()));
+                            current.put(Contract.Quote.COLUMN_SHARES_OUTSTANDING, Long.parseLong(row[7].trim()));
+                        }
+                        if (singleList) {
+                            watchlist.add(row[1]);
+                        }
+                        break;
+                    case RECORD_HISTORY:
+                        requireLength(row, 3);
+                        if (skipHistory) {
+                            break;
+                        }
+                        if (current == null) {
+                            throw new IOException("History row before any quote");
+                        }
+                        history.add(Long.parseLong(row[1].trim()), parseFloat(row[2]));
+                        break;
+                    default:
+                        throw new IOException("Unknown record type: " + row[0]);
+                }
+            }
+
+            if (current != null) {
+                current.put(Contract.Quote.COLUMN_HISTORY, history.build());
+                batch.add(current);
+                quoteCount++;
+            }
+            commit(context, batch, lists, ids, true);
+        } catch (NumberFormatException exception) {
+            throw new IOException("Malformed number in import", exception);
+        } finally {
+            reader.close();
+        }
+        return quoteCount;
+    }
+
+    /**
+     * Inserts the batch's quotes and adds them to the lists they are on in one transaction. The
+     * last batch also creates the lists and adds the members that have no quote in the file.
+     */
+    private static void commit(Context context, List<ContentValues> batch, Map<String, Set<String>> lists,
+                               Map<String, Long> ids, boolean last) throws IOException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(batch.size() * 2);
+        List<String> symbols = new ArrayList<>(batch.size());
+        for (ContentValues quote : batch) {
+            operations.add(ContentProviderOperation.newInsert(Contract.Quote.URI).withValues(quote).build());
+            symbols.add(quote.getAsString(Contract.Quote.COLUMN_SYMBOL));
+        }
+        for (Map.Entry<String, Set<String>> list : lists.entrySet()) {
+            Set<String> members = list.getValue();
+            Collection<String> added = last ? new ArrayList<>(members) : symbols;
+            Uri membersUri = last ? membersUri(context, list.getKey(), ids) : null;
+            for (String symbol : added) {
+                if (!members.remove(symbol)) {
+                    continue;
+                }
+                if (membersUri == null) {
+                    membersUri = membersUri(context, list.getKey(), ids);
+                }
+                operations.add(ContentProviderOperation.newInsert(membersUri)
+                        .withValue(Contract.Watchlist.COLUMN_SYMBOL, symbol)
+                        .build());
+            }
+        }
+        batch.clear();
+        if (operations.isEmpty()) {
+            return;
+        }
+        try {
+            context.getContentResolver().applyBatch(Contract.AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException | SQLiteException exception) {
+            throw new IOException("Error importing " + symbols.size() + " quotes", exception);
+        }
+    }
+
+    /**
+     * Looks up the list of that name, creating it where missing; null is the current list.
+     */
+    private static Uri membersUri(Context context, String name, Map<String, Long> ids) throws IOException {
+        if (name == null) {
+            return Contract.Watchlist.makeUriForMembers(PrefUtils.getCurrentWatchlist(context));
+        }
+        if (ids.isEmpty()) {
+            for (Map.Entry<Long, String> list : Watchlists.getNames(context).entrySet()) {
+                ids.put(list.getValue(), list.getKey());
+            }
+        }
+        Long watchlistId = ids.get(name);
+        if (watchlistId == null) {
+            watchlistId = Watchlists.add(context, name);
+            if (watchlistId == -1) {
+                throw new IOException("Could not create watchlist " + name);
+            }
+            ids.put(name, watchlistId);
+        }
+        return Contract.Watchlist.makeUriForMembers(watchlistId);
+    }
+
+    private static void requireLength(String[] row, int length) throws IOException {
+        if (row.length < length) {
+            throw new IOException("Truncated " + row[0] + " record");
+        }
+    }
+
+    private static float parseFloat(String value) {
+        return Float.parseFloat(value.trim());
+    }
+}
@@ -1,43 +1,241 @@
 package com.udacity.stockhawk.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.udacity.stockhawk.R;
 import com.udacity.stockhawk.data.Contract.Quote;
+import com.udacity.stockhawk.data.Contract.SearchTerm;
+import com.udacity.stockhawk.data.Contract.Watchlist;
+
+import java.util.Set;
 
 
 class DbHelper extends SQLiteOpenHelper {
 
 
     private static final String NAME = "StockHawk.db";
-    private static final int VERSION = 1;
+    private static final int VERSION = 8;
+
+    private static final String LEGACY_QUOTE_TABLE = "quotes_v1";
+
+    private final Context context;
 
 
     DbHelper(Context context) {
         super(context, NAME, null, VERSION);
+        this.context = context;
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createQuoteTable(db);
+        createSearchTable(db);
+        createSortIndexes(db);
+        WatchlistIndex.createTables(db);
+        createWatchlistTables(db);
+        seedDefaultWatchlist(db);
+    }
+
+    private static void createQuoteTable(SQLiteDatabase db) {
         String builder = "CREATE TABLE " + Quote.TABLE_NAME + " ("
                 + Quote._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + Quote.COLUMN_SYMBOL + " TEXT NOT NULL, "
                 + Quote.COLUMN_PRICE + " REAL NOT NULL, "
                 + Quote.COLUMN_ABSOLUTE_CHANGE + " REAL NOT NULL, "
                 + Quote.COLUMN_PERCENTAGE_CHANGE + " REAL NOT NULL, "
-                + Quote.COLUMN_HISTORY + " TEXT NOT NULL, "
+                + Quote.COLUMN_HISTORY + " BLOB NOT NULL, "
+                + Quote.COLUMN_HISTORY_END + " INTEGER NOT NULL DEFAULT 0, "
+                + Quote.COLUMN_NAME + " TEXT NOT NULL DEFAULT '', "
+                + Quote.COLUMN_LAST_UPDATED + " INTEGER NOT NULL DEFAULT 0, "
+                + Quote.COLUMN_SHARES_OUTSTANDING + " INTEGER NOT NULL DEFAULT 0, "
                 + "UNIQUE (" + Quote.COLUMN_SYMBOL + ") ON CONFLICT REPLACE);";
 
         db.execSQL(builder);
+    }
+
+    /**
+     * Lets the provider's sorted and top-mover queries walk an index instead of sorting the
+     * table. The symbol is already indexed by its UNIQUE constraint.
+     */
+    private static void createSortIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX quotes_price ON " + Quote.TABLE_NAME
+                + " (" + Quote.COLUMN_PRICE + ")");
+        db.execSQL("CREATE INDEX quotes_absolute_change ON " + Quote.TABLE_NAME
+                + " (" + Quote.COLUMN_ABSOLUTE_CHANGE + ")");
+        db.execSQL("CREATE INDEX quotes_percentage_change ON " + Quote.TABLE_NAME
+                + " (" + Quote.COLUMN_PERCENTAGE_CHANGE + ")");
+    }
+
+    private static void createSearchTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SearchTerm.TABLE_NAME + " ("
+                + SearchTerm.COLUMN_TERM + " TEXT NOT NULL, "
+                + SearchTerm.COLUMN_SYMBOL + " TEXT NOT NULL, "
+                + SearchTerm.COLUMN_WEIGHT + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX search_terms_term ON " + SearchTerm.TABLE_NAME
+                + " (" + SearchTerm.COLUMN_TERM + ")");
+        db.execSQL("CREATE INDEX search_terms_symbol ON " + SearchTerm.TABLE_NAME
+                + " (" + SearchTerm.COLUMN_SYMBOL + ")");
+
+        // REPLACE conflicts don't fire delete triggers, so the provider also rewrites the terms
+        // of every quote it inserts
+        db.execSQL("CREATE TRIGGER quotes_delete_search_terms AFTER DELETE ON " + Quote.TABLE_NAME
+                + " BEGIN DELETE FROM " + SearchTerm.TABLE_NAME
+                + " WHERE " + SearchTerm.COLUMN_SYMBOL + " = OLD." + Quote.COLUMN_SYMBOL + "; END");
+    }
+
+    private static void createWatchlistTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Watchlist.TABLE_NAME + " ("
+                + Watchlist._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + Watchlist.COLUMN_NAME + " TEXT NOT NULL UNIQUE);");
+        // The primary key serves the per-list lookups, the symbol index the membership checks
+        db.execSQL("CREATE TABLE " + Watchlist.MEMBERS_TABLE_NAME + " ("
+                + Watchlist.COLUMN_WATCHLIST_ID + " INTEGER NOT NULL, "
+                + Watchlist.COLUMN_SYMBOL + " TEXT NOT NULL, "
+                + "PRIMARY KEY (" + Watchlist.COLUMN_WATCHLIST_ID + ", " + Watchlist.COLUMN_SYMBOL + ") ON CONFLICT IGNORE);");
+        db.execSQL("CREATE INDEX watchlist_members_symbol ON " + Watchlist.MEMBERS_TABLE_NAME
+                + " (" + Watchlist.COLUMN_SYMBOL + ")");
+
+        db.execSQL("CREATE TRIGGER watchlists_delete_members AFTER DELETE ON " + Watchlist.TABLE_NAME
+                + " BEGIN DELETE FROM " + Watchlist.MEMBERS_TABLE_NAME
+                + " WHERE " + Watchlist.COLUMN_WATCHLIST_ID + " = OLD." + Watchlist._ID + "; END");
+        db.execSQL("CREATE TRIGGER watchlist_members_delete_quote AFTER DELETE ON " + Watchlist.MEMBERS_TABLE_NAME
+                + " WHEN NOT EXISTS (SELECT 1 FROM " + Watchlist.MEMBERS_TABLE_NAME
+                + " WHERE " + Watchlist.COLUMN_SYMBOL + " = OLD." + Watchlist.COLUMN_SYMBOL + ")"
+                + " BEGIN DELETE FROM " + Quote.TABLE_NAME
+                + " WHERE " + Quote.COLUMN_SYMBOL + " = OLD." + Watchlist.COLUMN_SYMBOL + "; END");
+    }
+
+    /**
+     * Fills the first watchlist with the symbols earlier versions kept in the preferences, or
+     * with the default stocks on a new install.
+     */
+    private void seedDefaultWatchlist(SQLiteDatabase db) {
+        ContentValues values = new ContentValues();
+        values.put(Watchlist._ID, Watchlist.DEFAULT_ID);
+        values.put(Watchlist.COLUMN_NAME, context.getString(R.string.default_watchlist_name));
+        db.insert(Watchlist.TABLE_NAME, null, values);
 
+        Set<String> symbols = PrefUtils.getLegacyStocks(context);
+        for (String symbol : symbols) {
+            values.clear();
+            values.put(Watchlist.COLUMN_WATCHLIST_ID, Watchlist.DEFAULT_ID);
+            values.put(Watchlist.COLUMN_SYMBOL, symbol);
+            db.insert(Watchlist.MEMBERS_TABLE_NAME, null, values);
+        }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 
-        db.execSQL(" DROP TABLE IF EXISTS " + Quote.TABLE_NAME);
+        if (oldVersion < 2) {
+            upgradeHistoryToBlob(db);
+        }
+        if (oldVersion < 3) {
+            upgradeAddHistoryEnd(db);
+        }
+        if (oldVersion < 4) {
+            upgradeAddSearch(db);
+        }
+        if (oldVersion < 5) {
+            createSortIndexes(db);
+        }
+        if (oldVersion < 6) {
+            db.execSQL("ALTER TABLE " + Quote.TABLE_NAME + " ADD COLUMN "
+                    + Quote.COLUMN_LAST_UPDATED + " INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 7) {
+            db.execSQL("ALTER TABLE " + Quote.TABLE_NAME + " ADD COLUMN "
+                    + Quote.COLUMN_SHARES_OUTSTANDING + " INTEGER NOT NULL DEFAULT 0");
+            WatchlistIndex.createTables(db);
+        }
+        if (oldVersion < 8) {
+            createWatchlistTables(db);
+            seedDefaultWatchlist(db);
+            WatchlistIndex.updateName(db);
+        }
+    }
+
+    /**
+     * Version 1 stored history as "date, close" text lines; re-encode it with HistoryCodec.
+     */
+    private static void upgradeHistoryToBlob(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + Quote.TABLE_NAME + " RENAME TO " + LEGACY_QUOTE_TABLE);
+        db.execSQL("CREATE TABLE " + Quote.TABLE_NAME + " ("
+                + Quote._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + Quote.COLUMN_SYMBOL + " TEXT NOT NULL, "
+                + Quote.COLUMN_PRICE + " REAL NOT NULL, "
+                + Quote.COLUMN_ABSOLUTE_CHANGE + " REAL NOT NULL, "
+                + Quote.COLUMN_PERCENTAGE_CHANGE + " REAL NOT NULL, "
+                + Quote.COLUMN_HISTORY + " BLOB NOT NULL, "
+                + "UNIQUE (" + Quote.COLUMN_SYMBOL + ") ON CONFLICT REPLACE);");
+
+        Cursor cursor = db.query(LEGACY_QUOTE_TABLE,
+                new String[]{
+                        Quote.COLUMN_SYMBOL,
+                        Quote.COLUMN_PRICE,
+                        Quote.COLUMN_ABSOLUTE_CHANGE,
+                        Quote.COLUMN_PERCENTAGE_CHANGE,
+                        Quote.COLUMN_HISTORY},
+                null, null, null, null, null);
+        try {
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                String history = cursor.getString(4);
+                values.clear();
+                values.put(Quote.COLUMN_SYMBOL, cursor.getString(0));
+                values.put(Quote.COLUMN_PRICE, cursor.getFloat(1));
+                values.put(Quote.COLUMN_ABSOLUTE_CHANGE, cursor.getFloat(2));
+                values.put(Quote.COLUMN_PERCENTAGE_CHANGE, cursor.getFloat(3));
+                values.put(Quote.COLUMN_HISTORY, Quote.INVALID_STOCK_HISTORY_MARKER.equals(history)
+                        ? HistoryCodec.invalidMarker()
+                        : HistoryCodec.fromLegacyText(history));
+                db.insert(Quote.TABLE_NAME, null, values);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        db.execSQL("DROP TABLE " + LEGACY_QUOTE_TABLE);
+    }
+
+    private static void upgradeAddHistoryEnd(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + Quote.TABLE_NAME + " ADD COLUMN "
+                + Quote.COLUMN_HISTORY_END + " INTEGER NOT NULL DEFAULT 0");
+
+        Cursor cursor = db.query(Quote.TABLE_NAME,
+                new String[]{Quote.COLUMN_SYMBOL, Quote.COLUMN_HISTORY},
+                null, null, null, null, null);
+        try {
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                values.clear();
+                values.put(Quote.COLUMN_HISTORY_END, historyEndOf(cursor.getBlob(1)));
+                db.update(Quote.TABLE_NAME, values,
+                        Quote.COLUMN_SYMBOL + " = ?", new String[]{cursor.getString(0)});
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Names arrive with the next full sync; until then existing quotes are found by symbol.
+     */
+    private static void upgradeAddSearch(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + Quote.TABLE_NAME + " ADD COLUMN "
+                + Quote.COLUMN_NAME + " TEXT NOT NULL DEFAULT ''");
+        createSearchTable(db);
+        db.execSQL("INSERT INTO " + SearchTerm.TABLE_NAME + " ("
+                + SearchTerm.COLUMN_TERM + ", " + SearchTerm.COLUMN_SYMBOL + ", " + SearchTerm.COLUMN_WEIGHT + ")"
+                + " SELECT lower(" + Quote.COLUMN_SYMBOL + "), " + Quote.COLUMN_SYMBOL + ", " + SearchTerm.WEIGHT_SYMBOL
+                + " FROM " + Quote.TABLE_NAME);
+    }
 
-        onCreate(db);
+    static long historyEndOf(byte[] history) {
+        return HistoryCodec.isInvalid(history) ? Quote.HISTORY_END_INVALID : HistoryCodec.lastDate(history);
     }
 }
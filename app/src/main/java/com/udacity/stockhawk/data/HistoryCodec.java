@@ -0,0 +1,397 @@
+package com.udacity.stockhawk.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Compact binary encoding for price histories, stored in {@link Contract.Quote#COLUMN_HISTORY}.
+ * <p>
+ * Layout: a version byte, a flags byte, the point count and the timestamp unit, followed by a
+ * Gorilla-style bit stream. Timestamps are written as delta-of-deltas in multiples of the unit
+ * (the greatest common divisor of all deltas), so a regular weekly or daily series costs about
+ * one bit per point. Prices are XORed with the previous price and only the meaningful bits of
+ * the result are written.
+ */
+public final class HistoryCodec {
+
+    public static final byte VERSION = 1;
+
+    private static final byte FLAG_INVALID = 1;
+    private static final int HEADER_SIZE = 1 + 1 + 4 + 8;
+
+    private HistoryCodec() {
+    }
+
+    public static byte[] invalidMarker() {
+        return ByteBuffer.allocate(HEADER_SIZE)
+                .put(VERSION)
+                .put(FLAG_INVALID)
+                .putInt(0)
+                .putLong(1)
+                .array();
+    }
+
+    public static boolean isInvalid(byte[] encoded) {
+        return encoded == null || encoded.length < HEADER_SIZE || (encoded[1] & FLAG_INVALID) != 0;
+    }
+
+    /**
+     * Parses the original {@code "<date millis>, <close>\n"} text format.
+     */
+    public static byte[] fromLegacyText(String history) {
+        Builder builder = new Builder();
+        int lineStart = 0;
+        while (lineStart < history.length()) {
+            int lineEnd = history.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = history.length();
+            }
+            int separator = history.indexOf(',', lineStart);
+            if (separator > lineStart && separator < lineEnd) {
+                try {
+                    builder.add(Long.parseLong(history.substring(lineStart, separator).trim()),
+                            Float.parseFloat(history.substring(separator + 1, lineEnd).trim()));
+                } catch (NumberFormatException ignored) {
+                    // Skip malformed points rather than losing the whole series
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return builder.build();
+    }
+
+    public static byte[] encode(long[] dates, float[] closes, int count) {
+        if (!isAscending(dates, count)) {
+            Integer[] order = sortedOrder(dates, count);
+            long[] sortedDates = new long[count];
+            float[] sortedCloses = new float[count];
+            for (int i = 0; i < count; i++) {
+                sortedDates[i] = dates[order[i]];
+                sortedCloses[i] = closes[order[i]];
+            }
+            dates = sortedDates;
+            closes = sortedCloses;
+        }
+
+        long unit = 0;
+        for (int i = 1; i < count; i++) {
+            unit = gcd(unit, dates[i] - dates[i - 1]);
+        }
+        if (unit == 0) {
+            unit = 1;
+        }
+
+        BitWriter bits = new BitWriter(HEADER_SIZE + 12 + count * 2);
+        bits.writeBits(VERSION, 8);
+        bits.writeBits(0, 8);
+        bits.writeBits(count, 32);
+        bits.writeBits(unit, 64);
+        if (count == 0) {
+            return bits.toByteArray();
+        }
+
+        bits.writeBits(dates[0], 64);
+        long previousDelta = 0;
+        for (int i = 1; i < count; i++) {
+            long delta = (dates[i] - dates[i - 1]) / unit;
+            writeDeltaOfDelta(bits, delta - previousDelta);
+            previousDelta = delta;
+        }
+
+        int previousBits = Float.floatToIntBits(closes[0]);
+        bits.writeBits(previousBits, 32);
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        for (int i = 1; i < count; i++) {
+            int valueBits = Float.floatToIntBits(closes[i]);
+            int xor = valueBits ^ previousBits;
+            previousBits = valueBits;
+
+            if (xor == 0) {
+                bits.writeBit(false);
+                continue;
+            }
+            bits.writeBit(true);
+
+            int leading = Math.min(Integer.numberOfLeadingZeros(xor), 31);
+            int trailing = Integer.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                bits.writeBit(false);
+                bits.writeBits(xor >>> previousTrailing, 32 - previousLeading - previousTrailing);
+            } else {
+                int meaningful = 32 - leading - trailing;
+                bits.writeBit(true);
+                bits.writeBits(leading, 5);
+                bits.writeBits(meaningful - 1, 5);
+                bits.writeBits(xor >>> trailing, meaningful);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+
+        return bits.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the data is not a history written by this codec
+     */
+    public static History decode(byte[] encoded) {
+        if (encoded == null || encoded.length < HEADER_SIZE || encoded[0] != VERSION) {
+            throw new IllegalArgumentException("Unsupported history encoding");
+        }
+        if (isInvalid(encoded)) {
+            return new History(new long[0], new float[0]);
+        }
+
+        BitReader bits = new BitReader(encoded);
+        bits.readBits(16);
+        int count = (int) bits.readBits(32);
+        long unit = bits.readBits(64);
+
+        long[] dates = new long[count];
+        float[] closes = new float[count];
+        if (count == 0) {
+            return new History(dates, closes);
+        }
+
+        dates[0] = bits.readBits(64);
+        long delta = 0;
+        for (int i = 1; i < count; i++) {
+            delta += readDeltaOfDelta(bits);
+            dates[i] = dates[i - 1] + delta * unit;
+        }
+
+        int previousBits = (int) bits.readBits(32);
+        closes[0] = Float.intBitsToFloat(previousBits);
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            if (bits.readBit()) {
+                if (bits.readBit()) {
+                    leading = (int) bits.readBits(5);
+                    int meaningful = (int) bits.readBits(5) + 1;
+                    trailing = 32 - leading - meaningful;
+                }
+                int xor = (int) bits.readBits(32 - leading - trailing) << trailing;
+                previousBits ^= xor;
+            }
+            closes[i] = Float.intBitsToFloat(previousBits);
+        }
+
+        return new History(dates, closes);
+    }
+
+    /**
+     * Reads only the timestamps to find the most recent date, or 0 for an empty series.
+     */
+    public static long lastDate(byte[] encoded) {
+        if (encoded == null || encoded.length < HEADER_SIZE || encoded[0] != VERSION || isInvalid(encoded)) {
+            return 0L;
+        }
+
+        BitReader bits = new BitReader(encoded);
+        bits.readBits(16);
+        int count = (int) bits.readBits(32);
+        long unit = bits.readBits(64);
+        if (count == 0) {
+            return 0L;
+        }
+
+        long date = bits.readBits(64);
+        long delta = 0;
+        for (int i = 1; i < count; i++) {
+            delta += readDeltaOfDelta(bits);
+            date += delta * unit;
+        }
+        return date;
+    }
+
+    private static void writeDeltaOfDelta(BitWriter bits, long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            bits.writeBit(false);
+        } else if (fits(deltaOfDelta, 7)) {
+            bits.writeBits(0b10, 2);
+            bits.writeBits(deltaOfDelta, 7);
+        } else if (fits(deltaOfDelta, 12)) {
+            bits.writeBits(0b110, 3);
+            bits.writeBits(deltaOfDelta, 12);
+        } else if (fits(deltaOfDelta, 20)) {
+            bits.writeBits(0b1110, 4);
+            bits.writeBits(deltaOfDelta, 20);
+        } else {
+            bits.writeBits(0b1111, 4);
+            bits.writeBits(deltaOfDelta, 64);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader bits) {
+        if (!bits.readBit()) {
+            return 0;
+        }
+        if (!bits.readBit()) {
+            return signExtend(bits.readBits(7), 7);
+        }
+        if (!bits.readBit()) {
+            return signExtend(bits.readBits(12), 12);
+        }
+        if (!bits.readBit()) {
+            return signExtend(bits.readBits(20), 20);
+        }
+        return bits.readBits(64);
+    }
+
+    private static boolean fits(long value, int width) {
+        long limit = 1L << (width - 1);
+        return value >= -limit && value < limit;
+    }
+
+    private static long signExtend(long value, int width) {
+        return (value << (64 - width)) >> (64 - width);
+    }
+
+    private static long gcd(long a, long b) {
+        a = Math.abs(a);
+        b = Math.abs(b);
+        while (b != 0) {
+            long next = a % b;
+            a = b;
+            b = next;
+        }
+        return a;
+    }
+
+    private static boolean isAscending(long[] dates, int count) {
+        for (int i = 1; i < count; i++) {
+            if (dates[i] < dates[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Integer[] sortedOrder(final long[] dates, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer left, Integer right) {
+                return Long.compare(dates[left], dates[right]);
+            }
+        });
+        return order;
+    }
+
+    /**
+     * A decoded series in ascending date order.
+     */
+    public static final class History {
+
+        public final long[] dates;
+        public final float[] closes;
+
+        History(long[] dates, float[] closes) {
+            this.dates = dates;
+            this.closes = closes;
+        }
+
+        public int size() {
+            return dates.length;
+        }
+
+        public long lastDate() {
+            return dates.length == 0 ? 0L : dates[dates.length - 1];
+        }
+    }
+
+    /**
+     * Collects points one at a time, e.g. while streaming a download or an import.
+     */
+    public static final class Builder {
+
+        private long[] dates = new long[128];
+        private float[] closes = new float[128];
+        private int count;
+
+        public Builder add(long date, float close) {
+            if (count == dates.length) {
+                dates = Arrays.copyOf(dates, count * 2);
+                closes = Arrays.copyOf(closes, count * 2);
+            }
+            dates[count] = date;
+            closes[count] = close;
+            count++;
+            return this;
+        }
+
+        public void clear() {
+            count = 0;
+        }
+
+        public byte[] build() {
+            return encode(dates, closes, count);
+        }
+    }
+
+    private static final class BitWriter {
+
+        private byte[] buffer;
+        private int position;
+
+        BitWriter(int initialBytes) {
+            buffer = new byte[Math.max(initialBytes, HEADER_SIZE)];
+        }
+
+        void writeBit(boolean bit) {
+            if ((position >>> 3) == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            if (bit) {
+                buffer[position >>> 3] |= (byte) (0x80 >>> (position & 7));
+            }
+            position++;
+        }
+
+        /**
+         * Writes the lowest {@code count} bits of {@code value}, most significant first.
+         */
+        void writeBits(long value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                writeBit(((value >>> i) & 1) != 0);
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, (position + 7) >>> 3);
+        }
+    }
+
+    private static final class BitReader {
+
+        private final byte[] buffer;
+        private int position;
+
+        BitReader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        boolean readBit() {
+            if ((position >>> 3) >= buffer.length) {
+                throw new IllegalArgumentException("Truncated history");
+            }
+            boolean bit = (buffer[position >>> 3] & (0x80 >>> (position & 7))) != 0;
+            position++;
+            return bit;
+        }
+
+        long readBits(int count) {
+            long value = 0;
+            for (int i = 0; i < count; i++) {
+                value = (value << 1) | (readBit() ? 1 : 0);
+            }
+            return value;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.preference.PreferenceManager;
+import android.text.format.DateUtils;
 
 import com.udacity.stockhawk.R;
 import com.udacity.stockhawk.sync.QuoteSyncJob;
@@ -20,7 +21,10 @@ public final class PrefUtils {
     private PrefUtils() {
     }
 
-    public static Set<String> getStocks(Context context) {
+    /**
+     * The single watchlist kept in the preferences before watchlists moved into the database.
+     */
+    static Set<String> getLegacyStocks(Context context) {
         String stocksKey = context.getString(R.string.pref_stocks_key);
         String initializedKey = context.getString(R.string.pref_stocks_initialized_key);
         String[] defaultStocksList = context.getResources().getStringArray(R.array.default_stocks);
@@ -32,40 +36,26 @@ public final class PrefUtils {
         boolean initialized = prefs.getBoolean(initializedKey, false);
 
         if (!initialized) {
-            SharedPreferences.Editor editor = prefs.edit();
-            editor.putBoolean(initializedKey, true);
-            editor.putStringSet(stocksKey, defaultStocks);
-            editor.apply();
             return defaultStocks;
         }
         return prefs.getStringSet(stocksKey, new HashSet<String>());
 
     }
 
-    private static void editStockPref(Context context, String symbol, Boolean add) {
-        String key = context.getString(R.string.pref_stocks_key);
-        Set<String> stocks = getStocks(context);
-
-        if (add) {
-            stocks.add(symbol);
-        } else {
-            stocks.remove(symbol);
-        }
+    public static long getCurrentWatchlist(Context context) {
+        String key = context.getString(R.string.pref_current_watchlist_key);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getLong(key, Contract.Watchlist.DEFAULT_ID);
+    }
 
+    public static void setCurrentWatchlist(Context context, long watchlistId) {
+        String key = context.getString(R.string.pref_current_watchlist_key);
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         SharedPreferences.Editor editor = prefs.edit();
-        editor.putStringSet(key, stocks);
+        editor.putLong(key, watchlistId);
         editor.apply();
     }
 
-    public static void addStock(Context context, String symbol) {
-        editStockPref(context, symbol, true);
-    }
-
-    public static void removeStock(Context context, String symbol) {
-        editStockPref(context, symbol, false);
-    }
-
     public static String getDisplayMode(Context context) {
         String key = context.getString(R.string.pref_display_mode_key);
         String defaultValue = context.getString(R.string.pref_display_mode_default);
@@ -93,6 +83,53 @@ public final class PrefUtils {
         editor.apply();
     }
 
+    /**
+     * @return how long a synced quote counts as fresh, in milliseconds
+     */
+    public static long getFreshnessTtl(Context context) {
+        String key = context.getString(R.string.pref_freshness_ttl_key);
+        String defaultValue = context.getString(R.string.pref_freshness_ttl_default);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        try {
+            return Long.parseLong(prefs.getString(key, defaultValue)) * 1000;
+        } catch (NumberFormatException exception) {
+            return Long.parseLong(defaultValue) * 1000;
+        }
+    }
+
+    /**
+     * @return how far back stored histories reach, in milliseconds
+     */
+    public static long getHistoryRetention(Context context) {
+        String key = context.getString(R.string.pref_history_retention_key);
+        String defaultValue = context.getString(R.string.pref_history_retention_default);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        try {
+            return Long.parseLong(prefs.getString(key, defaultValue)) * DateUtils.DAY_IN_MILLIS;
+        } catch (NumberFormatException exception) {
+            return Long.parseLong(defaultValue) * DateUtils.DAY_IN_MILLIS;
+        }
+    }
+
+    /**
+     * Weighting used when the watchlist index is built; members keep the units they joined with.
+     */
+    public static String getIndexWeighting(Context context) {
+        String key = context.getString(R.string.pref_index_weighting_key);
+        String defaultValue = context.getString(R.string.pref_index_weighting_equal);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(key, defaultValue);
+    }
+
+    /**
+     * Takes effect when the watchlist index is next built.
+     */
+    public static void setIndexWeighting(Context context, String weighting) {
+        String key = context.getString(R.string.pref_index_weighting_key);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit().putString(key, weighting).apply();
+    }
+
     public static boolean getConnectivityStatus(Context context){
         ConnectivityManager cm = (ConnectivityManager)context.getSystemService(CONNECTIVITY_SERVICE);
         NetworkInfo networkInfo = cm.getActiveNetworkInfo();
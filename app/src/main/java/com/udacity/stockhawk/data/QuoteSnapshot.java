@@ -0,0 +1,136 @@
+package com.udacity.stockhawk.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.AtomicFile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import timber.log.Timber;
+
+/**
+ * Compact binary copy of the first {@link #MAX_QUOTES} quotes, written by the sync job after
+ * every successful write so that the widget can render without opening the database.
+ */
+public final class QuoteSnapshot {
+
+    public static final int MAX_QUOTES = 20;
+    private static final int VERSION = 1;
+    private static final String FILE_NAME = "quote_snapshot.bin";
+
+    private static final String[] SNAPSHOT_COLUMNS = {
+            Contract.Quote.COLUMN_SYMBOL,
+            Contract.Quote.COLUMN_PRICE,
+            Contract.Quote.COLUMN_ABSOLUTE_CHANGE,
+            Contract.Quote.COLUMN_PERCENTAGE_CHANGE
+    };
+
+    private static final QuoteSnapshot EMPTY = new QuoteSnapshot(0L, 0);
+
+    public final long timestamp;
+    public final String[] symbols;
+    public final float[] prices;
+    public final float[] absoluteChanges;
+    public final float[] percentageChanges;
+
+    private QuoteSnapshot(long timestamp, int size) {
+        this.timestamp = timestamp;
+        symbols = new String[size];
+        prices = new float[size];
+        absoluteChanges = new float[size];
+        percentageChanges = new float[size];
+    }
+
+    public int size() {
+        return symbols.length;
+    }
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    public static void writeFromProvider(Context context) {
+        Cursor cursor = context.getContentResolver().query(
+                Contract.Quote.URI,
+                SNAPSHOT_COLUMNS,
+                null, null, Contract.Quote.COLUMN_SYMBOL);
+        if (cursor == null) {
+            return;
+        }
+
+        QuoteSnapshot snapshot;
+        try {
+            snapshot = new QuoteSnapshot(System.currentTimeMillis(), Math.min(cursor.getCount(), MAX_QUOTES));
+            for (int i = 0; i < snapshot.size() && cursor.moveToNext(); i++) {
+                snapshot.symbols[i] = cursor.getString(0);
+                snapshot.prices[i] = cursor.getFloat(1);
+                snapshot.absoluteChanges[i] = cursor.getFloat(2);
+                snapshot.percentageChanges[i] = cursor.getFloat(3);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        write(context, snapshot);
+    }
+
+    private static void write(Context context, QuoteSnapshot snapshot) {
+        AtomicFile file = getFile(context);
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeByte(VERSION);
+            out.writeLong(snapshot.timestamp);
+            out.writeInt(snapshot.size());
+            for (int i = 0; i < snapshot.size(); i++) {
+                out.writeUTF(snapshot.symbols[i]);
+                out.writeFloat(snapshot.prices[i]);
+                out.writeFloat(snapshot.absoluteChanges[i]);
+                out.writeFloat(snapshot.percentageChanges[i]);
+            }
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException exception) {
+            Timber.e(exception, "Error writing quote snapshot");
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+
+    public static QuoteSnapshot read(Context context) {
+        AtomicFile file = getFile(context);
+        DataInputStream in = null;
+        try {
+            FileInputStream stream = file.openRead();
+            in = new DataInputStream(stream);
+            if (in.readByte() != VERSION) {
+                return EMPTY;
+            }
+            QuoteSnapshot snapshot = new QuoteSnapshot(in.readLong(), Math.min(in.readInt(), MAX_QUOTES));
+            for (int i = 0; i < snapshot.size(); i++) {
+                snapshot.symbols[i] = in.readUTF();
+                snapshot.prices[i] = in.readFloat();
+                snapshot.absoluteChanges[i] = in.readFloat();
+                snapshot.percentageChanges[i] = in.readFloat();
+            }
+            return snapshot;
+        } catch (IOException exception) {
+            Timber.d("No usable quote snapshot: %s", exception.getMessage());
+            return EMPTY;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -1,29 +1,58 @@
 package com.udacity.stockhawk.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
 
 public class StockProvider extends ContentProvider {
 
     private static final int QUOTE = 100;
     private static final int QUOTE_FOR_SYMBOL = 101;
+    private static final int SEARCH = 200;
+    private static final int WATCHLIST = 300;
+    private static final int WATCHLIST_MEMBERS_ALL = 301;
+    private static final int WATCHLIST_MEMBERS = 302;
+    private static final int WATCHLIST_QUOTES = 303;
+    private static final int WATCHLIST_WITH_ID = 304;
+
+    private static final int SEARCH_LIMIT = 50;
+    private static final String MATCH_SYMBOL = "match_symbol";
+    private static final String MATCH_WEIGHT = "match_weight";
 
     private static final UriMatcher uriMatcher = buildUriMatcher();
 
     private DbHelper dbHelper;
+    // Set while the calling thread is inside applyBatch; changes are then notified once at the end
+    private final ThreadLocal<Boolean> batchChanged = new ThreadLocal<>();
 
     private static UriMatcher buildUriMatcher() {
         UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
         matcher.addURI(Contract.AUTHORITY, Contract.PATH_QUOTE, QUOTE);
         matcher.addURI(Contract.AUTHORITY, Contract.PATH_QUOTE_WITH_SYMBOL, QUOTE_FOR_SYMBOL);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_SEARCH_WITH_QUERY, SEARCH);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_WATCHLIST, WATCHLIST);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_WATCHLIST_WITH_ID, WATCHLIST_WITH_ID);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_WATCHLIST_MEMBERS_ALL, WATCHLIST_MEMBERS_ALL);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_WATCHLIST_MEMBERS, WATCHLIST_MEMBERS);
+        matcher.addURI(Contract.AUTHORITY, Contract.PATH_WATCHLIST_QUOTES, WATCHLIST_QUOTES);
         return matcher;
     }
 
@@ -42,6 +71,17 @@ public class StockProvider extends ContentProvider {
 
         switch (uriMatcher.match(uri)) {
             case QUOTE:
+                String sortParam = uri.getQueryParameter(Contract.Quote.PARAM_SORT);
+                if (sortParam != null) {
+                    sortOrder = buildSortOrder(sortParam, uri.getQueryParameter(Contract.Quote.PARAM_ORDER));
+                }
+                String filter = uri.getQueryParameter(Contract.Quote.PARAM_FILTER);
+                if (filter != null) {
+                    String filterSelection = buildFilterSelection(filter);
+                    selection = selection == null
+                            ? filterSelection
+                            : "(" + selection + ") AND " + filterSelection;
+                }
                 returnCursor = db.query(
                         Contract.Quote.TABLE_NAME,
                         projection,
@@ -49,7 +89,8 @@ public class StockProvider extends ContentProvider {
                         selectionArgs,
                         null,
                         null,
-                        sortOrder
+                        sortOrder,
+                        buildLimit(uri)
                 );
                 break;
 
@@ -65,6 +106,76 @@ public class StockProvider extends ContentProvider {
                 );
 
                 break;
+
+            case SEARCH:
+                returnCursor = search(db, projection, uri.getLastPathSegment());
+                // Results change with any quote, not just with the search URI
+                uri = Contract.Quote.URI;
+                break;
+
+            case WATCHLIST:
+                returnCursor = db.query(
+                        Contract.Watchlist.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+
+            case WATCHLIST_MEMBERS_ALL:
+                returnCursor = db.query(true,
+                        Contract.Watchlist.MEMBERS_TABLE_NAME,
+                        new String[]{Contract.Watchlist.COLUMN_SYMBOL},
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder,
+                        null
+                );
+                // Membership changes are notified on the quote URI, see delete()
+                uri = Contract.Quote.URI;
+                break;
+
+            case WATCHLIST_MEMBERS:
+                returnCursor = db.query(
+                        Contract.Watchlist.MEMBERS_TABLE_NAME,
+                        projection,
+                        inWatchlist(selection),
+                        withWatchlistArg(uri, selectionArgs),
+                        null,
+                        null,
+                        sortOrder
+                );
+                uri = Contract.Quote.URI;
+                break;
+
+            case WATCHLIST_QUOTES:
+                // Walks the list's primary key range, then looks each member up by the unique
+                // symbol index. The index row, which covers all lists, is shown in every list.
+                String membersSelection = Contract.Quote.COLUMN_SYMBOL + " IN (SELECT "
+                        + Contract.Watchlist.COLUMN_SYMBOL + " FROM " + Contract.Watchlist.MEMBERS_TABLE_NAME
+                        + " WHERE " + Contract.Watchlist.COLUMN_WATCHLIST_ID + " = ?)"
+                        + " OR " + Contract.Quote.COLUMN_SYMBOL + " = ?";
+                String[] membersArgs = {Contract.Watchlist.getIdFromUri(uri), Contract.Quote.INDEX_SYMBOL};
+                if (selection != null) {
+                    membersSelection = "(" + membersSelection + ") AND (" + selection + ")";
+                    membersArgs = concat(membersArgs, selectionArgs);
+                }
+                returnCursor = db.query(
+                        Contract.Quote.TABLE_NAME,
+                        projection,
+                        membersSelection,
+                        membersArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                uri = Contract.Quote.URI;
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown URI:" + uri);
         }
@@ -91,21 +202,34 @@ public class StockProvider extends ContentProvider {
 
         switch (uriMatcher.match(uri)) {
             case QUOTE:
-                db.insert(
-                        Contract.Quote.TABLE_NAME,
-                        null,
-                        values
-                );
+                db.beginTransaction();
+                try {
+                    insertQuote(db, values);
+                    flushIndex(db);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 returnUri = Contract.Quote.URI;
                 break;
+            case WATCHLIST:
+                long id = db.insert(Contract.Watchlist.TABLE_NAME, null, values);
+                if (id == -1) {
+                    // The name is taken
+                    return null;
+                }
+                returnUri = ContentUris.withAppendedId(Contract.Watchlist.URI, id);
+                break;
+            case WATCHLIST_MEMBERS:
+                insertMember(db, Contract.Watchlist.getIdFromUri(uri), values);
+                returnUri = uri;
+                uri = Contract.Quote.URI;
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown URI:" + uri);
         }
 
-        Context context = getContext();
-        if (context != null){
-            context.getContentResolver().notifyChange(uri, null);
-        }
+        notifyChange(uri);
 
         return returnUri;
     }
@@ -118,32 +242,72 @@ public class StockProvider extends ContentProvider {
         if (null == selection) {
             selection = "1";
         }
-        switch (uriMatcher.match(uri)) {
-            case QUOTE:
-                rowsDeleted = db.delete(
-                        Contract.Quote.TABLE_NAME,
-                        selection,
-                        selectionArgs
-                );
-
-                break;
-
-            case QUOTE_FOR_SYMBOL:
-                String symbol = Contract.Quote.getStockFromUri(uri);
-                rowsDeleted = db.delete(
-                        Contract.Quote.TABLE_NAME,
-                        '"' + symbol + '"' + " =" + Contract.Quote.COLUMN_SYMBOL,
-                        selectionArgs
-                );
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown URI:" + uri);
+        int match = uriMatcher.match(uri);
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case QUOTE:
+                    rowsDeleted = db.delete(
+                            Contract.Quote.TABLE_NAME,
+                            selection,
+                            selectionArgs
+                    );
+
+                    break;
+
+                case QUOTE_FOR_SYMBOL:
+                    String symbol = Contract.Quote.getStockFromUri(uri);
+                    rowsDeleted = db.delete(
+                            Contract.Quote.TABLE_NAME,
+                            Contract.Quote.COLUMN_SYMBOL + " = ?",
+                            new String[]{symbol}
+                    );
+                    break;
+
+                // A trigger deletes the quotes of symbols that are no longer on any list, so
+                // membership changes are notified on the quote URI
+                case WATCHLIST_MEMBERS_ALL:
+                    rowsDeleted = db.delete(
+                            Contract.Watchlist.MEMBERS_TABLE_NAME,
+                            selection,
+                            selectionArgs
+                    );
+                    uri = Contract.Quote.URI;
+                    break;
+
+                case WATCHLIST_MEMBERS:
+                    rowsDeleted = db.delete(
+                            Contract.Watchlist.MEMBERS_TABLE_NAME,
+                            inWatchlist(selection),
+                            withWatchlistArg(uri, selectionArgs)
+                    );
+                    uri = Contract.Quote.URI;
+                    break;
+
+                // Triggers delete the list's members and then the quotes that were only on it
+                case WATCHLIST_WITH_ID:
+                    rowsDeleted = db.delete(
+                            Contract.Watchlist.TABLE_NAME,
+                            Contract.Watchlist._ID + " = ?",
+                            new String[]{Contract.Watchlist.getIdFromUri(uri)}
+                    );
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown URI:" + uri);
+            }
+            // Triggers have already taken deleted members out of the index
+            if (rowsDeleted != 0) {
+                flushIndex(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
 
         if (rowsDeleted != 0) {
-            Context context = getContext();
-            if (context != null){
-                context.getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
+            if (match == WATCHLIST_WITH_ID) {
+                notifyChange(Contract.Quote.URI);
             }
         }
 
@@ -152,7 +316,70 @@ public class StockProvider extends ContentProvider {
 
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        return 0;
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        int rowsUpdated;
+
+        db.beginTransaction();
+        try {
+            switch (uriMatcher.match(uri)) {
+                case QUOTE:
+                    // Not reflected in the watchlist index, which tracks prices per symbol
+                    rowsUpdated = db.update(
+                            Contract.Quote.TABLE_NAME,
+                            withHistoryEnd(values),
+                            selection,
+                            selectionArgs
+                    );
+                    break;
+
+                case QUOTE_FOR_SYMBOL:
+                    String symbol = Contract.Quote.getStockFromUri(uri);
+                    String symbolSelection = Contract.Quote.COLUMN_SYMBOL + " = ?";
+                    String[] symbolArgs = new String[]{symbol};
+                    if (selection != null) {
+                        symbolSelection += " AND (" + selection + ")";
+                        if (selectionArgs != null) {
+                            String[] combinedArgs = new String[selectionArgs.length + 1];
+                            combinedArgs[0] = symbolArgs[0];
+                            System.arraycopy(selectionArgs, 0, combinedArgs, 1, selectionArgs.length);
+                            symbolArgs = combinedArgs;
+                        }
+                    }
+                    rowsUpdated = db.update(
+                            Contract.Quote.TABLE_NAME,
+                            withHistoryEnd(values),
+                            symbolSelection,
+                            symbolArgs
+                    );
+                    if (rowsUpdated != 0) {
+                        WatchlistIndex.onQuoteWritten(db, symbol, values);
+                        flushIndex(db);
+                    }
+                    break;
+
+                // Renames; nothing is updated when another list has the name
+                case WATCHLIST_WITH_ID:
+                    rowsUpdated = db.updateWithOnConflict(
+                            Contract.Watchlist.TABLE_NAME,
+                            values,
+                            Contract.Watchlist._ID + " = ?",
+                            new String[]{Contract.Watchlist.getIdFromUri(uri)},
+                            SQLiteDatabase.CONFLICT_IGNORE
+                    );
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown URI:" + uri);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+        }
+
+        return rowsUpdated;
     }
 
     @Override
@@ -166,27 +393,290 @@ public class StockProvider extends ContentProvider {
                 int returnCount = 0;
                 try {
                     for (ContentValues value : values) {
-                        db.insert(
-                                Contract.Quote.TABLE_NAME,
-                                null,
-                                value
-                        );
+                        insertQuote(db, value);
                     }
+                    flushIndex(db);
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
 
-                Context context = getContext();
-                if (context != null) {
-                    context.getContentResolver().notifyChange(uri, null);
-                }
+                notifyChange(uri);
 
                 return returnCount;
+            case WATCHLIST_MEMBERS:
+                String watchlistId = Contract.Watchlist.getIdFromUri(uri);
+                db.beginTransaction();
+                try {
+                    for (ContentValues value : values) {
+                        insertMember(db, watchlistId, value);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                notifyChange(Contract.Quote.URI);
+
+                return values.length;
             default:
                 return super.bulkInsert(uri, values);
         }
 
 
     }
+
+    /**
+     * Applies all operations in one transaction. Observers get a single notification for the
+     * whole batch, and only if it succeeded.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        ContentProviderResult[] results = null;
+
+        batchChanged.set(Boolean.FALSE);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            WatchlistIndex.flush(db, indexWeighting());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            boolean changed = batchChanged.get();
+            batchChanged.remove();
+            if (changed && results != null) {
+                notifyChange(Contract.Quote.URI);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Supports {@link Contract.Maintenance#METHOD_MAINTAIN}: pruning runs in one transaction,
+     * compaction after it has been committed.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (!Contract.Maintenance.METHOD_MAINTAIN.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        String[] watched = extras == null ? null : extras.getStringArray(Contract.Maintenance.EXTRA_WATCHED_SYMBOLS);
+        if (watched == null || !extras.containsKey(Contract.Maintenance.EXTRA_HISTORY_CUTOFF)) {
+            throw new IllegalArgumentException("Maintenance needs the watched symbols and a history cutoff");
+        }
+
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Bundle result = new Bundle();
+        boolean changed;
+
+        db.beginTransaction();
+        try {
+            changed = StorageMaintenance.prune(db, new HashSet<>(Arrays.asList(watched)),
+                    extras.getLong(Contract.Maintenance.EXTRA_HISTORY_CUTOFF), result);
+            if (changed) {
+                flushIndex(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        StorageMaintenance.compact(db, result);
+
+        if (changed) {
+            notifyChange(Contract.Quote.URI);
+        }
+        return result;
+    }
+
+    /**
+     * Brings the watchlist index row up to date, once per transaction: inside a batch this is
+     * left to applyBatch.
+     */
+    private void flushIndex(SQLiteDatabase db) {
+        if (batchChanged.get() == null) {
+            WatchlistIndex.flush(db, indexWeighting());
+        }
+    }
+
+    private String indexWeighting() {
+        Context context = getContext();
+        return context == null ? WatchlistIndex.WEIGHTING_EQUAL : PrefUtils.getIndexWeighting(context);
+    }
+
+    /**
+     * Notifying the quote URI also reaches observers of quote/&lt;symbol&gt;, which is what lets a
+     * batch touching several URIs collapse into one notification.
+     */
+    private void notifyChange(Uri uri) {
+        if (batchChanged.get() != null) {
+            batchChanged.set(Boolean.TRUE);
+            return;
+        }
+        Context context = getContext();
+        if (context != null) {
+            context.getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    private static String buildSortOrder(String column, @Nullable String order) {
+        if (!Contract.Quote.SORTABLE_COLUMNS.contains(column)) {
+            throw new IllegalArgumentException("Cannot sort by " + column);
+        }
+        if (order == null || Contract.Quote.ORDER_ASCENDING.equals(order)) {
+            return column + " ASC";
+        } else if (Contract.Quote.ORDER_DESCENDING.equals(order)) {
+            return column + " DESC";
+        }
+        throw new IllegalArgumentException("Unknown order " + order);
+    }
+
+    /**
+     * Invalid symbols are stored with zero changes, so they never count as movers.
+     */
+    private static String buildFilterSelection(String filter) {
+        switch (filter) {
+            case Contract.Quote.FILTER_GAINERS:
+                return Contract.Quote.COLUMN_PERCENTAGE_CHANGE + " > 0";
+            case Contract.Quote.FILTER_LOSERS:
+                return Contract.Quote.COLUMN_PERCENTAGE_CHANGE + " < 0";
+            default:
+                throw new IllegalArgumentException("Unknown filter " + filter);
+        }
+    }
+
+    @Nullable
+    private static String buildLimit(Uri uri) {
+        String limit = uri.getQueryParameter(Contract.Quote.PARAM_LIMIT);
+        String offset = uri.getQueryParameter(Contract.Quote.PARAM_OFFSET);
+        if (limit == null && offset == null) {
+            return null;
+        }
+        // SQLite needs a limit to accept an offset; -1 means no limit
+        int rowLimit = limit == null ? -1 : parseRowCount(Contract.Quote.PARAM_LIMIT, limit);
+        int rowOffset = offset == null ? 0 : parseRowCount(Contract.Quote.PARAM_OFFSET, offset);
+        if (limit != null && rowLimit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive, got " + limit);
+        }
+        if (rowOffset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative, got " + offset);
+        }
+        return rowOffset + "," + rowLimit;
+    }
+
+    private static int parseRowCount(String parameter, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException exception) {
+            throw new IllegalArgumentException("Malformed " + parameter + " " + value, exception);
+        }
+    }
+
+    /**
+     * Matches the lower-cased query as a prefix of the indexed terms with a range scan, so only
+     * matching terms and their quotes are read.
+     */
+    private static Cursor search(SQLiteDatabase db, String[] projection, String query) {
+        String prefix = query.trim().toLowerCase(Locale.US);
+        if (prefix.isEmpty()) {
+            return db.query(Contract.Quote.TABLE_NAME, projection, "0", null, null, null, null);
+        }
+        String termMatch;
+        String[] termArgs;
+        char last = prefix.charAt(prefix.length() - 1);
+        if (last < Character.MAX_VALUE && !Character.isSurrogate(last) && !Character.isSurrogate((char) (last + 1))) {
+            String upperBound = prefix.substring(0, prefix.length() - 1) + (char) (last + 1);
+            termMatch = Contract.SearchTerm.COLUMN_TERM + " >= ? AND " + Contract.SearchTerm.COLUMN_TERM + " < ?";
+            termArgs = new String[]{prefix, upperBound};
+        } else {
+            // No character follows the last one, or the next one is half a surrogate pair; the
+            // index still finds the first match, and the prefix is compared from there on
+            termMatch = Contract.SearchTerm.COLUMN_TERM + " >= ? AND substr("
+                    + Contract.SearchTerm.COLUMN_TERM + ", 1, length(?)) = ?";
+            termArgs = new String[]{prefix, prefix, prefix};
+        }
+
+        String columns = projection == null ? "*" : TextUtils.join(", ", projection);
+        String sql = "SELECT " + columns + " FROM " + Contract.Quote.TABLE_NAME
+                + " JOIN (SELECT " + Contract.SearchTerm.COLUMN_SYMBOL + " AS " + MATCH_SYMBOL
+                + ", MIN(" + Contract.SearchTerm.COLUMN_WEIGHT + ") AS " + MATCH_WEIGHT
+                + " FROM " + Contract.SearchTerm.TABLE_NAME
+                + " WHERE " + termMatch
+                + " GROUP BY " + Contract.SearchTerm.COLUMN_SYMBOL + ")"
+                + " ON " + Contract.Quote.COLUMN_SYMBOL + " = " + MATCH_SYMBOL
+                + " ORDER BY " + MATCH_WEIGHT + ", length(" + Contract.Quote.COLUMN_SYMBOL + "), "
+                + Contract.Quote.COLUMN_SYMBOL
+                + " LIMIT " + SEARCH_LIMIT;
+        return db.rawQuery(sql, termArgs);
+    }
+
+    private static void insertMember(SQLiteDatabase db, String watchlistId, ContentValues values) {
+        ContentValues member = new ContentValues(values);
+        member.put(Contract.Watchlist.COLUMN_WATCHLIST_ID, Long.parseLong(watchlistId));
+        db.insert(Contract.Watchlist.MEMBERS_TABLE_NAME, null, member);
+    }
+
+    private static String inWatchlist(@Nullable String selection) {
+        String watchlistSelection = Contract.Watchlist.COLUMN_WATCHLIST_ID + " = ?";
+        return selection == null ? watchlistSelection : watchlistSelection + " AND (" + selection + ")";
+    }
+
+    private static String[] withWatchlistArg(Uri uri, @Nullable String[] selectionArgs) {
+        return concat(new String[]{Contract.Watchlist.getIdFromUri(uri)}, selectionArgs);
+    }
+
+    private static String[] concat(String[] first, @Nullable String[] second) {
+        if (second == null) {
+            return first;
+        }
+        String[] combined = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, combined, first.length, second.length);
+        return combined;
+    }
+
+    private static void insertQuote(SQLiteDatabase db, ContentValues values) {
+        db.insert(
+                Contract.Quote.TABLE_NAME,
+                null,
+                withHistoryEnd(values)
+        );
+        String symbol = values.getAsString(Contract.Quote.COLUMN_SYMBOL);
+        if (symbol != null) {
+            writeSearchTerms(db, symbol, values.getAsString(Contract.Quote.COLUMN_NAME));
+            WatchlistIndex.onQuoteWritten(db, symbol, values);
+        }
+    }
+
+    static void writeSearchTerms(SQLiteDatabase db, String symbol, @Nullable String name) {
+        db.delete(Contract.SearchTerm.TABLE_NAME, Contract.SearchTerm.COLUMN_SYMBOL + " = ?", new String[]{symbol});
+
+        ContentValues term = new ContentValues();
+        term.put(Contract.SearchTerm.COLUMN_SYMBOL, symbol);
+        term.put(Contract.SearchTerm.COLUMN_TERM, symbol.toLowerCase(Locale.US));
+        term.put(Contract.SearchTerm.COLUMN_WEIGHT, Contract.SearchTerm.WEIGHT_SYMBOL);
+        db.insert(Contract.SearchTerm.TABLE_NAME, null, term);
+
+        if (name == null) {
+            return;
+        }
+        Set<String> words = new HashSet<>();
+        for (String word : name.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty() && words.add(word)) {
+                term.put(Contract.SearchTerm.COLUMN_TERM, word);
+                term.put(Contract.SearchTerm.COLUMN_WEIGHT, Contract.SearchTerm.WEIGHT_NAME);
+                db.insert(Contract.SearchTerm.TABLE_NAME, null, term);
+            }
+        }
+    }
+
+    private static ContentValues withHistoryEnd(ContentValues values) {
+        if (values.containsKey(Contract.Quote.COLUMN_HISTORY)) {
+            values.put(Contract.Quote.COLUMN_HISTORY_END,
+                    DbHelper.historyEndOf(values.getAsByteArray(Contract.Quote.COLUMN_HISTORY)));
+        }
+        return values;
+    }
 }
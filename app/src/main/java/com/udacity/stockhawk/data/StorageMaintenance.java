@@ -0,0 +1,130 @@
+package com.udacity.stockhawk.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.udacity.stockhawk.data.Contract.Maintenance;
+import com.udacity.stockhawk.data.Contract.Quote;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the database from growing without bound: quotes that are no longer watched are deleted,
+ * histories are cut at the retention cutoff, and the freed pages are handed back to the file
+ * system.
+ * <p>
+ * {@link #prune} runs inside the provider's write transaction. {@link #compact} must run outside
+ * of any transaction, because VACUUM cannot.
+ */
+final class StorageMaintenance {
+
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    private StorageMaintenance() {
+    }
+
+    /**
+     * @param watched symbols whose quotes are kept; the index row is always kept
+     * @param historyCutoff points dated before this are dropped, though each history keeps at
+     *                      least its latest point
+     * @return true if any quote changed
+     */
+    static boolean prune(SQLiteDatabase db, Set<String> watched, long historyCutoff, Bundle result) {
+        List<String> orphans = new ArrayList<>();
+        int trimmed = 0;
+
+        Cursor cursor = db.query(Quote.TABLE_NAME,
+                new String[]{Quote.COLUMN_SYMBOL, Quote.COLUMN_HISTORY, Quote.COLUMN_HISTORY_END},
+                null, null, null, null, null);
+        try {
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                String symbol = cursor.getString(0);
+                if (!watched.contains(symbol) && !Quote.INDEX_SYMBOL.equals(symbol)) {
+                    orphans.add(symbol);
+                    continue;
+                }
+                if (cursor.getLong(2) == Quote.HISTORY_END_INVALID) {
+                    continue;
+                }
+                byte[] history = trimHistory(cursor.getBlob(1), historyCutoff);
+                if (history != null) {
+                    values.clear();
+                    values.put(Quote.COLUMN_HISTORY, history);
+                    values.put(Quote.COLUMN_HISTORY_END, DbHelper.historyEndOf(history));
+                    db.update(Quote.TABLE_NAME, values, Quote.COLUMN_SYMBOL + " = ?", new String[]{symbol});
+                    trimmed++;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Triggers take the deleted quotes out of the search terms and the index
+        for (String symbol : orphans) {
+            db.delete(Quote.TABLE_NAME, Quote.COLUMN_SYMBOL + " = ?", new String[]{symbol});
+        }
+
+        result.putInt(Maintenance.RESULT_ORPHANS_DELETED, orphans.size());
+        result.putInt(Maintenance.RESULT_HISTORIES_TRIMMED, trimmed);
+        return !orphans.isEmpty() || trimmed != 0;
+    }
+
+    /**
+     * @return the trimmed encoding, or null if no point is older than the cutoff
+     */
+    private static byte[] trimHistory(byte[] encoded, long cutoff) {
+        HistoryCodec.History history;
+        try {
+            history = HistoryCodec.decode(encoded);
+        } catch (IllegalArgumentException exception) {
+            return null;
+        }
+        int first = 0;
+        while (first < history.size() - 1 && history.dates[first] < cutoff) {
+            first++;
+        }
+        if (first == 0) {
+            return null;
+        }
+        return HistoryCodec.encode(
+                Arrays.copyOfRange(history.dates, first, history.size()),
+                Arrays.copyOfRange(history.closes, first, history.size()),
+                history.size() - first);
+    }
+
+    /**
+     * Returns free pages to the file system and refreshes the planner statistics. The first run
+     * on a database created without incremental auto-vacuum switches it over with a full VACUUM.
+     */
+    static void compact(SQLiteDatabase db, Bundle result) {
+        long sizeBefore = databaseSize(db);
+
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        } else {
+            // Each freed page is one result row; stepping through them all does the work
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum", null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        }
+        db.execSQL("ANALYZE");
+
+        result.putLong(Maintenance.RESULT_BYTES_RECLAIMED, Math.max(0, sizeBefore - databaseSize(db)));
+    }
+
+    private static long databaseSize(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+}
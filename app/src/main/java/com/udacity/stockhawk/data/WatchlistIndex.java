@@ -0,0 +1,468 @@
+package com.udacity.stockhawk.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.Nullable;
+
+import com.udacity.stockhawk.data.Contract.Quote;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A synthetic index of every valid quote, stored as the quote row {@link Quote#INDEX_SYMBOL}.
+ * The quotes are shared by all watchlists, so the index covers the stocks of every list; each
+ * list shows it, but it is not that list's own index.
+ * <p>
+ * The index holds a fixed number of units of each member, chosen when the member joins: an
+ * equal share of the index value, or its shares outstanding when cap-weighted. Its level is the
+ * value of those holdings divided by a divisor, which is rescaled whenever a member joins or
+ * leaves so that the level does not jump. Every price written for a member moves the stored
+ * value by {@code units * (price - last price)}; nothing is summed over all members again.
+ * <p>
+ * The history is computed once from the member histories when the index is built. Afterwards
+ * only weeks that every member has reported since the index history ended are appended.
+ * <p>
+ * All methods run inside the provider's write transaction.
+ */
+final class WatchlistIndex {
+
+    static final String WEIGHTING_EQUAL = "equal";
+    static final String WEIGHTING_CAP = "cap";
+    static final String NAME = "All watchlists";
+    private static final float BASE_LEVEL = 100f;
+
+    static final String MEMBERS_TABLE = "index_members";
+    static final String MEMBER_SYMBOL = "symbol";
+    static final String MEMBER_UNITS = "units";
+    static final String MEMBER_LAST_PRICE = "last_price";
+    static final String MEMBER_PREVIOUS_CLOSE = "previous_close";
+
+    static final String STATE_TABLE = "index_state";
+    static final String STATE_ID = "_id";
+    static final String STATE_WEIGHTING = "weighting";
+    static final String STATE_DIVISOR = "divisor";
+    static final String STATE_VALUE = "value";
+    static final String STATE_PREVIOUS_VALUE = "previous_value";
+
+    private WatchlistIndex() {
+    }
+
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + MEMBERS_TABLE + " ("
+                + MEMBER_SYMBOL + " TEXT PRIMARY KEY, "
+                + MEMBER_UNITS + " REAL NOT NULL, "
+                + MEMBER_LAST_PRICE + " REAL NOT NULL, "
+                + MEMBER_PREVIOUS_CLOSE + " REAL NOT NULL);");
+        db.execSQL("CREATE TABLE " + STATE_TABLE + " ("
+                + STATE_ID + " INTEGER PRIMARY KEY CHECK (" + STATE_ID + " = 1), "
+                + STATE_WEIGHTING + " TEXT NOT NULL, "
+                + STATE_DIVISOR + " REAL NOT NULL, "
+                + STATE_VALUE + " REAL NOT NULL, "
+                + STATE_PREVIOUS_VALUE + " REAL NOT NULL);");
+
+        // A member leaving takes its holding out of the value and rescales the divisor so the
+        // level stays put
+        String member = " FROM " + MEMBERS_TABLE + " WHERE " + MEMBER_SYMBOL + " = OLD." + Quote.COLUMN_SYMBOL;
+        String removedValue = "(SELECT " + MEMBER_UNITS + " * " + MEMBER_LAST_PRICE + member + ")";
+        String removedPrevious = "(SELECT " + MEMBER_UNITS + " * " + MEMBER_PREVIOUS_CLOSE + member + ")";
+        db.execSQL("CREATE TRIGGER quotes_delete_index_member AFTER DELETE ON " + Quote.TABLE_NAME
+                + " WHEN EXISTS (SELECT 1" + member + ")"
+                + " BEGIN"
+                + " UPDATE " + STATE_TABLE + " SET "
+                + STATE_DIVISOR + " = " + STATE_DIVISOR + " * (" + STATE_VALUE + " - " + removedValue + ") / " + STATE_VALUE + ", "
+                + STATE_VALUE + " = " + STATE_VALUE + " - " + removedValue + ", "
+                + STATE_PREVIOUS_VALUE + " = " + STATE_PREVIOUS_VALUE + " - " + removedPrevious + ";"
+                + " DELETE" + member + ";"
+                + " DELETE FROM " + STATE_TABLE + " WHERE " + STATE_VALUE + " <= 0;"
+                + " DELETE FROM " + Quote.TABLE_NAME + " WHERE " + Quote.COLUMN_SYMBOL + " = '" + Quote.INDEX_SYMBOL + "'"
+                + " AND NOT EXISTS (SELECT 1 FROM " + STATE_TABLE + ");"
+                + " END");
+        // Deleting the index row starts it over
+        db.execSQL("CREATE TRIGGER quotes_delete_index AFTER DELETE ON " + Quote.TABLE_NAME
+                + " WHEN OLD." + Quote.COLUMN_SYMBOL + " = '" + Quote.INDEX_SYMBOL + "'"
+                + " BEGIN"
+                + " DELETE FROM " + MEMBERS_TABLE + ";"
+                + " DELETE FROM " + STATE_TABLE + ";"
+                + " END");
+    }
+
+    /**
+     * Gives an index row built before there were several watchlists its current name.
+     */
+    static void updateName(SQLiteDatabase db) {
+        ContentValues values = new ContentValues();
+        values.put(Quote.COLUMN_NAME, NAME);
+        if (db.update(Quote.TABLE_NAME, values, Quote.COLUMN_SYMBOL + " = ?", new String[]{Quote.INDEX_SYMBOL}) != 0) {
+            StockProvider.writeSearchTerms(db, Quote.INDEX_SYMBOL, NAME);
+        }
+    }
+
+    /**
+     * Applies a price written for one quote; {@link #flush} then writes the new level.
+     */
+    static void onQuoteWritten(SQLiteDatabase db, String symbol, ContentValues values) {
+        if (Quote.INDEX_SYMBOL.equals(symbol) || !values.containsKey(Quote.COLUMN_PRICE)) {
+            return;
+        }
+        State state = readState(db);
+        if (state == null) {
+            // Built from the stored quotes on the next flush
+            return;
+        }
+
+        Cursor cursor = db.query(MEMBERS_TABLE,
+                new String[]{MEMBER_UNITS, MEMBER_LAST_PRICE, MEMBER_PREVIOUS_CLOSE},
+                MEMBER_SYMBOL + " = ?", new String[]{symbol}, null, null, null);
+        double units;
+        double lastPrice;
+        double lastPreviousClose;
+        boolean member;
+        try {
+            member = cursor.moveToFirst();
+            units = member ? cursor.getDouble(0) : 0;
+            lastPrice = member ? cursor.getDouble(1) : 0;
+            lastPreviousClose = member ? cursor.getDouble(2) : 0;
+        } finally {
+            cursor.close();
+        }
+
+        boolean invalid = values.containsKey(Quote.COLUMN_HISTORY)
+                && HistoryCodec.isInvalid(values.getAsByteArray(Quote.COLUMN_HISTORY));
+        double price = values.getAsFloat(Quote.COLUMN_PRICE);
+        Float change = values.getAsFloat(Quote.COLUMN_ABSOLUTE_CHANGE);
+        double previousClose = price - (change == null ? 0 : change);
+        if (invalid || price <= 0) {
+            if (member) {
+                // Same bookkeeping as the delete trigger
+                removeMember(db, state, symbol, units * lastPrice, units * lastPreviousClose);
+            }
+            return;
+        }
+
+        if (member) {
+            state.value += units * (price - lastPrice);
+            state.previousValue += units * (previousClose - lastPreviousClose);
+        } else {
+            units = unitsForNewMember(db, state, price, values.getAsLong(Quote.COLUMN_SHARES_OUTSTANDING));
+            double newValue = state.value + units * price;
+            state.divisor *= newValue / state.value;
+            state.value = newValue;
+            state.previousValue += units * previousClose;
+        }
+        writeMember(db, symbol, units, price, previousClose);
+        writeState(db, state);
+    }
+
+    private static double unitsForNewMember(SQLiteDatabase db, State state, double price, @Nullable Long shares) {
+        if (WEIGHTING_CAP.equals(state.weighting) && shares != null && shares > 0) {
+            return shares;
+        }
+        long members = DatabaseUtils.queryNumEntries(db, MEMBERS_TABLE);
+        double share = members == 0 ? state.value : state.value / members;
+        return share / price;
+    }
+
+    private static void removeMember(SQLiteDatabase db, State state, String symbol,
+                                     double value, double previousValue) {
+        db.delete(MEMBERS_TABLE, MEMBER_SYMBOL + " = ?", new String[]{symbol});
+        double newValue = state.value - value;
+        if (newValue <= 0) {
+            db.delete(Quote.TABLE_NAME, Quote.COLUMN_SYMBOL + " = ?", new String[]{Quote.INDEX_SYMBOL});
+            return;
+        }
+        state.divisor *= newValue / state.value;
+        state.value = newValue;
+        state.previousValue -= previousValue;
+        writeState(db, state);
+    }
+
+    /**
+     * Writes the current level to the index row, building the index first if there is none.
+     */
+    static void flush(SQLiteDatabase db, String weighting) {
+        State state = readState(db);
+        if (state == null) {
+            build(db, weighting);
+            return;
+        }
+
+        double level = state.value / state.divisor;
+        double previousLevel = state.previousValue / state.divisor;
+        ContentValues values = new ContentValues();
+        values.put(Quote.COLUMN_PRICE, (float) level);
+        values.put(Quote.COLUMN_ABSOLUTE_CHANGE, (float) (level - previousLevel));
+        values.put(Quote.COLUMN_PERCENTAGE_CHANGE,
+                previousLevel > 0 ? (float) ((level - previousLevel) / previousLevel * 100) : 0f);
+        values.put(Quote.COLUMN_LAST_UPDATED, System.currentTimeMillis());
+
+        byte[] extended = extendHistory(db, state);
+        if (extended != null) {
+            values.put(Quote.COLUMN_HISTORY, extended);
+            values.put(Quote.COLUMN_HISTORY_END, DbHelper.historyEndOf(extended));
+        }
+        db.update(Quote.TABLE_NAME, values, Quote.COLUMN_SYMBOL + " = ?", new String[]{Quote.INDEX_SYMBOL});
+    }
+
+    private static void build(SQLiteDatabase db, String weighting) {
+        List<Holding> holdings = new ArrayList<>();
+        Cursor cursor = db.query(Quote.TABLE_NAME,
+                new String[]{
+                        Quote.COLUMN_SYMBOL,
+                        Quote.COLUMN_PRICE,
+                        Quote.COLUMN_ABSOLUTE_CHANGE,
+                        Quote.COLUMN_SHARES_OUTSTANDING,
+                        Quote.COLUMN_HISTORY},
+                Quote.COLUMN_SYMBOL + " != ? AND " + Quote.COLUMN_HISTORY_END + " > 0 AND "
+                        + Quote.COLUMN_PRICE + " > 0",
+                new String[]{Quote.INDEX_SYMBOL}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                try {
+                    holdings.add(new Holding(cursor.getString(0), cursor.getFloat(1), cursor.getFloat(2),
+                            cursor.getLong(3), HistoryCodec.decode(cursor.getBlob(4))));
+                } catch (IllegalArgumentException ignored) {
+                    // Leave out histories that cannot be decoded
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        if (holdings.isEmpty()) {
+            return;
+        }
+
+        boolean capWeighted = WEIGHTING_CAP.equals(weighting);
+        for (Holding holding : holdings) {
+            holding.units = capWeighted && holding.shares > 0 ? holding.shares : 1.0 / holding.price;
+        }
+
+        // The history starts once every member has a close, at BASE_LEVEL
+        long start = Long.MIN_VALUE;
+        for (Holding holding : holdings) {
+            start = Math.max(start, holding.history.size() == 0 ? Long.MAX_VALUE : holding.history.dates[0]);
+        }
+        long[] dates = datesBetween(holdings, start - 1, Long.MAX_VALUE);
+        double[] values = new double[dates.length];
+        for (int t = 0; t < dates.length; t++) {
+            values[t] = valueAt(holdings, dates[t]);
+        }
+
+        double value = 0;
+        double previousValue = 0;
+        for (Holding holding : holdings) {
+            value += holding.units * holding.price;
+            previousValue += holding.units * (holding.price - holding.change);
+        }
+        double divisor = (values.length > 0 ? values[0] : value) / BASE_LEVEL;
+
+        HistoryCodec.Builder history = new HistoryCodec.Builder();
+        for (int t = 0; t < dates.length; t++) {
+            history.add(dates[t], (float) (values[t] / divisor));
+        }
+
+        for (Holding holding : holdings) {
+            writeMember(db, holding.symbol, holding.units, holding.price, holding.price - holding.change);
+        }
+        State state = new State(weighting, divisor, value, previousValue);
+        writeState(db, state);
+
+        byte[] encoded = history.build();
+        double level = value / divisor;
+        double previousLevel = previousValue / divisor;
+        ContentValues row = new ContentValues();
+        row.put(Quote.COLUMN_SYMBOL, Quote.INDEX_SYMBOL);
+        row.put(Quote.COLUMN_NAME, NAME);
+        row.put(Quote.COLUMN_PRICE, (float) level);
+        row.put(Quote.COLUMN_ABSOLUTE_CHANGE, (float) (level - previousLevel));
+        row.put(Quote.COLUMN_PERCENTAGE_CHANGE,
+                previousLevel > 0 ? (float) ((level - previousLevel) / previousLevel * 100) : 0f);
+        row.put(Quote.COLUMN_LAST_UPDATED, System.currentTimeMillis());
+        row.put(Quote.COLUMN_HISTORY, encoded);
+        row.put(Quote.COLUMN_HISTORY_END, DbHelper.historyEndOf(encoded));
+        db.insert(Quote.TABLE_NAME, null, row);
+        StockProvider.writeSearchTerms(db, Quote.INDEX_SYMBOL, NAME);
+    }
+
+    /**
+     * @return the index history with the weeks every member has reported since it ended, or
+     * null if there is nothing to add
+     */
+    @Nullable
+    private static byte[] extendHistory(SQLiteDatabase db, State state) {
+        long indexEnd;
+        byte[] indexHistory;
+        Cursor cursor = db.query(Quote.TABLE_NAME,
+                new String[]{Quote.COLUMN_HISTORY_END, Quote.COLUMN_HISTORY},
+                Quote.COLUMN_SYMBOL + " = ?", new String[]{Quote.INDEX_SYMBOL}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            indexEnd = cursor.getLong(0);
+            indexHistory = cursor.getBlob(1);
+        } finally {
+            cursor.close();
+        }
+
+        long membersEnd = longForQuery(db, "SELECT MIN(q." + Quote.COLUMN_HISTORY_END + ") FROM "
+                + Quote.TABLE_NAME + " q JOIN " + MEMBERS_TABLE + " m ON q." + Quote.COLUMN_SYMBOL
+                + " = m." + MEMBER_SYMBOL);
+        if (membersEnd <= indexEnd) {
+            return null;
+        }
+
+        List<Holding> holdings = new ArrayList<>();
+        cursor = db.rawQuery("SELECT m." + MEMBER_SYMBOL + ", m." + MEMBER_UNITS + ", q." + Quote.COLUMN_HISTORY
+                + " FROM " + MEMBERS_TABLE + " m JOIN " + Quote.TABLE_NAME + " q ON q." + Quote.COLUMN_SYMBOL
+                + " = m." + MEMBER_SYMBOL, null);
+        try {
+            while (cursor.moveToNext()) {
+                Holding holding = new Holding(cursor.getString(0), 0f, 0f, 0L, HistoryCodec.decode(cursor.getBlob(2)));
+                holding.units = cursor.getDouble(1);
+                holdings.add(holding);
+            }
+        } catch (IllegalArgumentException exception) {
+            return null;
+        } finally {
+            cursor.close();
+        }
+
+        long[] dates = datesBetween(holdings, indexEnd, membersEnd);
+        if (dates.length == 0) {
+            return null;
+        }
+        HistoryCodec.History existing = HistoryCodec.decode(indexHistory);
+        HistoryCodec.Builder history = new HistoryCodec.Builder();
+        for (int i = 0; i < existing.size(); i++) {
+            history.add(existing.dates[i], existing.closes[i]);
+        }
+        for (long date : dates) {
+            history.add(date, (float) (valueAt(holdings, date) / state.divisor));
+        }
+        return history.build();
+    }
+
+    /**
+     * @return the sorted distinct member dates in (after, until]
+     */
+    private static long[] datesBetween(List<Holding> holdings, long after, long until) {
+        int total = 0;
+        for (Holding holding : holdings) {
+            total += holding.history.size();
+        }
+        long[] dates = new long[total];
+        int count = 0;
+        for (Holding holding : holdings) {
+            for (long date : holding.history.dates) {
+                if (date > after && date <= until) {
+                    dates[count++] = date;
+                }
+            }
+        }
+        Arrays.sort(dates, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || dates[i] != dates[unique - 1]) {
+                dates[unique++] = dates[i];
+            }
+        }
+        return Arrays.copyOf(dates, unique);
+    }
+
+    /**
+     * Values the holdings at each member's last close on or before the date.
+     */
+    private static double valueAt(List<Holding> holdings, long date) {
+        double value = 0;
+        for (Holding holding : holdings) {
+            int index = Arrays.binarySearch(holding.history.dates, date);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            if (index >= 0) {
+                value += holding.units * holding.history.closes[index];
+            }
+        }
+        return value;
+    }
+
+    private static long longForQuery(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : 0L;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Nullable
+    private static State readState(SQLiteDatabase db) {
+        Cursor cursor = db.query(STATE_TABLE,
+                new String[]{STATE_WEIGHTING, STATE_DIVISOR, STATE_VALUE, STATE_PREVIOUS_VALUE},
+                null, null, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new State(cursor.getString(0), cursor.getDouble(1), cursor.getDouble(2), cursor.getDouble(3));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void writeState(SQLiteDatabase db, State state) {
+        ContentValues values = new ContentValues();
+        values.put(STATE_ID, 1);
+        values.put(STATE_WEIGHTING, state.weighting);
+        values.put(STATE_DIVISOR, state.divisor);
+        values.put(STATE_VALUE, state.value);
+        values.put(STATE_PREVIOUS_VALUE, state.previousValue);
+        db.insertWithOnConflict(STATE_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static void writeMember(SQLiteDatabase db, String symbol, double units, double price, double previousClose) {
+        ContentValues values = new ContentValues();
+        values.put(MEMBER_SYMBOL, symbol);
+        values.put(MEMBER_UNITS, units);
+        values.put(MEMBER_LAST_PRICE, price);
+        values.put(MEMBER_PREVIOUS_CLOSE, previousClose);
+        db.insertWithOnConflict(MEMBERS_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private static final class State {
+
+        final String weighting;
+        double divisor;
+        double value;
+        double previousValue;
+
+        State(String weighting, double divisor, double value, double previousValue) {
+            this.weighting = weighting;
+            this.divisor = divisor;
+            this.value = value;
+            this.previousValue = previousValue;
+        }
+    }
+
+    private static final class Holding {
+
+        final String symbol;
+        final float price;
+        final float change;
+        final long shares;
+        final HistoryCodec.History history;
+        double units;
+
+        Holding(String symbol, float price, float change, long shares, HistoryCodec.History history) {
+            this.symbol = symbol;
+            this.price = price;
+            this.change = change;
+            this.shares = shares;
+            this.history = history;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.udacity.stockhawk.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Reads and edits the watchlists in the provider. Every call goes to the database, so none of
+ * them belong on the main thread; the UI edits through
+ * {@link com.udacity.stockhawk.sync.WatchlistEditService}.
+ */
+public final class Watchlists {
+
+    // Stays well below SQLite's limit of 999 bound arguments per statement
+    private static final int SYMBOLS_PER_DELETE = 500;
+
+    private Watchlists() {
+    }
+
+    /**
+     * @return every symbol on any watchlist, each once
+     */
+    public static Set<String> getStocks(Context context) {
+        return querySymbols(context, Contract.Watchlist.MEMBERS_URI);
+    }
+
+    public static Set<String> getStocks(Context context, long watchlistId) {
+        return querySymbols(context, Contract.Watchlist.makeUriForMembers(watchlistId));
+    }
+
+    /**
+     * @return the name of every list by id, oldest list first
+     */
+    public static Map<Long, String> getNames(Context context) {
+        Map<Long, String> names = new LinkedHashMap<>();
+        Cursor cursor = context.getContentResolver().query(Contract.Watchlist.URI,
+                new String[]{Contract.Watchlist._ID, Contract.Watchlist.COLUMN_NAME},
+                null, null, Contract.Watchlist._ID);
+        if (cursor == null) {
+            return names;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                names.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+
+    /**
+     * @return the id of the new watchlist, or -1 if one with that name exists
+     */
+    public static long add(Context context, String name) {
+        ContentValues values = new ContentValues();
+        values.put(Contract.Watchlist.COLUMN_NAME, name);
+        Uri uri = context.getContentResolver().insert(Contract.Watchlist.URI, values);
+        return uri == null ? -1 : ContentUris.parseId(uri);
+    }
+
+    /**
+     * @return false if another list has the name or the list is gone
+     */
+    public static boolean rename(Context context, long watchlistId, String name) {
+        ContentValues values = new ContentValues();
+        values.put(Contract.Watchlist.COLUMN_NAME, name);
+        return context.getContentResolver().update(
+                Contract.Watchlist.makeUriForWatchlist(watchlistId), values, null, null) != 0;
+    }
+
+    /**
+     * Deletes the list with its members. Quotes of symbols that are on no other list go with
+     * them. The default list is kept, so there is always one to show.
+     *
+     * @return false if nothing was deleted
+     */
+    public static boolean delete(Context context, long watchlistId) {
+        if (watchlistId == Contract.Watchlist.DEFAULT_ID) {
+            return false;
+        }
+        return context.getContentResolver().delete(
+                Contract.Watchlist.makeUriForWatchlist(watchlistId), null, null) != 0;
+    }
+
+    public static void addStocks(Context context, long watchlistId, Collection<String> symbols) {
+        if (symbols.isEmpty()) {
+            return;
+        }
+        ContentValues[] values = new ContentValues[symbols.size()];
+        int i = 0;
+        for (String symbol : symbols) {
+            values[i] = new ContentValues();
+            values[i].put(Contract.Watchlist.COLUMN_SYMBOL, symbol);
+            i++;
+        }
+        context.getContentResolver().bulkInsert(Contract.Watchlist.makeUriForMembers(watchlistId), values);
+    }
+
+    /**
+     * Removes the symbols from one watchlist in a single batch. Quotes of symbols that are on no
+     * other list go with them.
+     *
+     * @return false if the batch was rolled back
+     */
+    public static boolean removeStocks(Context context, long watchlistId, Collection<String> symbols) {
+        if (symbols.isEmpty()) {
+            return true;
+        }
+        String[] remaining = symbols.toArray(new String[symbols.size()]);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int start = 0; start < remaining.length; start += SYMBOLS_PER_DELETE) {
+            String[] args = Arrays.copyOfRange(remaining, start, Math.min(start + SYMBOLS_PER_DELETE, remaining.length));
+            operations.add(ContentProviderOperation.newDelete(Contract.Watchlist.makeUriForMembers(watchlistId))
+                    .withSelection(Contract.Watchlist.COLUMN_SYMBOL + " IN (" + placeholders(args.length) + ")", args)
+                    .build());
+        }
+        try {
+            context.getContentResolver().applyBatch(Contract.AUTHORITY, operations);
+            return true;
+        } catch (RemoteException | OperationApplicationException exception) {
+            Timber.e(exception, "Error removing %d stocks", remaining.length);
+            return false;
+        }
+    }
+
+    public static void removeFromAll(Context context, String symbol) {
+        context.getContentResolver().delete(Contract.Watchlist.MEMBERS_URI,
+                Contract.Watchlist.COLUMN_SYMBOL + " = ?", new String[]{symbol});
+    }
+
+    private static Set<String> querySymbols(Context context, Uri uri) {
+        Set<String> stocks = new HashSet<>();
+        Cursor cursor = context.getContentResolver().query(uri,
+                new String[]{Contract.Watchlist.COLUMN_SYMBOL}, null, null, null);
+        if (cursor == null) {
+            return stocks;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                stocks.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return stocks;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append('?');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package com.udacity.stockhawk.sync;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.widget.Toast;
+
+import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.data.CsvTransfer;
+import com.udacity.stockhawk.data.QuoteSnapshot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import timber.log.Timber;
+
+import static com.udacity.stockhawk.sync.QuoteSyncJob.ACTION_DATA_UPDATED;
+
+public class CsvTransferService extends IntentService {
+
+    private static final String ACTION_EXPORT = "com.udacity.stockhawk.ACTION_EXPORT_CSV";
+    private static final String ACTION_IMPORT = "com.udacity.stockhawk.ACTION_IMPORT_CSV";
+
+    public CsvTransferService() {
+        super(CsvTransferService.class.getSimpleName());
+    }
+
+    public static void startExport(Context context, Uri destination) {
+        Intent intent = new Intent(context, CsvTransferService.class);
+        intent.setAction(ACTION_EXPORT);
+        intent.setData(destination);
+        context.startService(intent);
+    }
+
+    public static void startImport(Context context, Uri source) {
+        Intent intent = new Intent(context, CsvTransferService.class);
+        intent.setAction(ACTION_IMPORT);
+        intent.setData(source);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Uri uri = intent.getData();
+        if (uri == null) {
+            return;
+        }
+
+        try {
+            if (ACTION_EXPORT.equals(intent.getAction())) {
+                OutputStream out = getContentResolver().openOutputStream(uri);
+                if (out == null) {
+                    throw new IOException("Cannot open " + uri);
+                }
+                int count = CsvTransfer.exportTo(this, out);
+                showToast(getString(R.string.toast_export_done, count));
+            } else if (ACTION_IMPORT.equals(intent.getAction())) {
+                InputStream in = getContentResolver().openInputStream(uri);
+                if (in == null) {
+                    throw new IOException("Cannot open " + uri);
+                }
+                int count = CsvTransfer.importFrom(this, in);
+                QuoteSnapshot.writeFromProvider(this);
+                sendBroadcast(new Intent(ACTION_DATA_UPDATED));
+                showToast(getString(R.string.toast_import_done, count));
+            }
+        } catch (IOException exception) {
+            Timber.e(exception, "Error transferring CSV");
+            showToast(getString(R.string.toast_transfer_failed));
+        }
+    }
+
+    private void showToast(final String message) {
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(getApplicationContext(), message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+}
@@ -0,0 +1,164 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.text.format.DateUtils;
+import android.util.AtomicFile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import timber.log.Timber;
+import yahoofinance.histquotes.Interval;
+
+/**
+ * Encoded history downloads kept in the cache directory, one file per symbol, interval and
+ * range. An entry expires after a fraction of its interval, since the newest bar keeps moving
+ * until its period closes; the least recently used entries are evicted once the cache grows past
+ * {@link #MAX_BYTES}.
+ */
+final class HistoryCache {
+
+    private static final String DIRECTORY = "history";
+    private static final long MAX_BYTES = 2 * 1024 * 1024;
+    private static final int VERSION = 1;
+
+    private final File directory;
+
+    HistoryCache(Context context) {
+        directory = new File(context.getCacheDir(), DIRECTORY);
+    }
+
+    private static long timeToLive(Interval interval) {
+        switch (interval) {
+            case DAILY:
+                return 4 * DateUtils.HOUR_IN_MILLIS;
+            case WEEKLY:
+                return DateUtils.DAY_IN_MILLIS;
+            default:
+                return DateUtils.WEEK_IN_MILLIS;
+        }
+    }
+
+    /**
+     * @return the cached encoded history, or null if there is none or it has expired
+     */
+    @Nullable
+    byte[] get(String symbol, Interval interval, int years, long now) {
+        File file = getFile(symbol, interval, years);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new AtomicFile(file).openRead());
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            long fetchedAt = in.readLong();
+            if (now - fetchedAt > timeToLive(interval) || fetchedAt > now) {
+                return null;
+            }
+            byte[] history = new byte[in.readInt()];
+            in.readFully(history);
+            // The modification time tracks use, for eviction
+            file.setLastModified(now);
+            return history;
+        } catch (IOException exception) {
+            Timber.d("Unusable cached history for %s: %s", symbol, exception.getMessage());
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    void put(String symbol, Interval interval, int years, long now, byte[] history) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+
+        AtomicFile file = new AtomicFile(getFile(symbol, interval, years));
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeByte(VERSION);
+            out.writeLong(now);
+            out.writeInt(history.length);
+            out.write(history);
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException exception) {
+            Timber.e(exception, "Error caching history for %s", symbol);
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+
+    /**
+     * Deletes least recently used entries until the cache fits in {@link #MAX_BYTES}.
+     */
+    void trim() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File left, File right) {
+                return Long.compare(left.lastModified(), right.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (total <= MAX_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    void clear() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    private File getFile(String symbol, Interval interval, int years) {
+        String key = symbol + "_" + interval.name() + "_" + years + "y";
+        try {
+            return new File(directory, URLEncoder.encode(key, "UTF-8"));
+        } catch (UnsupportedEncodingException exception) {
+            throw new AssertionError(exception);
+        }
+    }
+}
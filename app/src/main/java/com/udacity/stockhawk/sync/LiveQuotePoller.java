@@ -0,0 +1,200 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.RemoteException;
+
+import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.PrefUtils;
+import com.udacity.stockhawk.data.QuoteSnapshot;
+import com.udacity.stockhawk.data.Watchlists;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+import yahoofinance.Stock;
+import yahoofinance.YahooFinance;
+import yahoofinance.quotes.stock.StockQuote;
+
+/**
+ * Polls prices while the quote list is on screen, far more often than the periodic job may run.
+ * Only quotes are requested, never history, and only rows whose price moved are written. The
+ * interval starts at {@link #MIN_INTERVAL} and doubles up to {@link #MAX_INTERVAL} for as long
+ * as nothing changes.
+ * <p>
+ * Requests go through HttpURLConnection, which keeps the connection to the quote server alive
+ * between polls.
+ */
+public final class LiveQuotePoller {
+
+    private static final long MIN_INTERVAL = 5 * 1000;
+    private static final long MAX_INTERVAL = 60 * 1000;
+    private static final int REQUEST_SIZE = 50;
+
+    private final Context context;
+    private HandlerThread thread;
+    private Handler handler;
+    private volatile boolean running;
+    private long interval = MIN_INTERVAL;
+    // Last price written for each symbol, {price, absolute change, percentage change}
+    private final Map<String, float[]> lastPrices = new HashMap<>();
+
+    public LiveQuotePoller(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        interval = MIN_INTERVAL;
+        thread = new HandlerThread("LiveQuotePoller", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                loadStoredPrices();
+            }
+        });
+        handler.postDelayed(poll, MIN_INTERVAL);
+    }
+
+    /**
+     * Stops polling at once; a request already in flight is discarded when it returns.
+     */
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        handler.removeCallbacksAndMessages(null);
+        thread.quit();
+        thread = null;
+        handler = null;
+    }
+
+    private final Runnable poll = new Runnable() {
+        @Override
+        public void run() {
+            if (!running) {
+                return;
+            }
+            Handler currentHandler = handler;
+
+            boolean changed = false;
+            if (PrefUtils.getConnectivityStatus(context)) {
+                changed = pollOnce();
+            }
+            interval = changed ? MIN_INTERVAL : Math.min(interval * 2, MAX_INTERVAL);
+
+            if (running && currentHandler != null) {
+                currentHandler.postDelayed(this, interval);
+            }
+        }
+    };
+
+    private void loadStoredPrices() {
+        Cursor cursor = context.getContentResolver().query(
+                Contract.Quote.URI,
+                new String[]{
+                        Contract.Quote.COLUMN_SYMBOL,
+                        Contract.Quote.COLUMN_PRICE,
+                        Contract.Quote.COLUMN_ABSOLUTE_CHANGE,
+                        Contract.Quote.COLUMN_PERCENTAGE_CHANGE},
+                null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                lastPrices.put(cursor.getString(0),
+                        new float[]{cursor.getFloat(1), cursor.getFloat(2), cursor.getFloat(3)});
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return true if any price changed
+     */
+    private boolean pollOnce() {
+        List<String> symbols = new ArrayList<>(Watchlists.getStocks(context));
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        // Kept apart until the batch is written, so a failed write is retried on the next poll
+        Map<String, float[]> written = new HashMap<>();
+        long now = System.currentTimeMillis();
+
+        for (int start = 0; start < symbols.size() && running; start += REQUEST_SIZE) {
+            List<String> request = symbols.subList(start, Math.min(start + REQUEST_SIZE, symbols.size()));
+            Map<String, Stock> quotes;
+            try {
+                quotes = YahooFinance.get(request.toArray(new String[request.size()]));
+            } catch (IOException exception) {
+                Timber.d("Live poll failed: %s", exception.getMessage());
+                return false;
+            }
+
+            for (String symbol : request) {
+                Stock stock = quotes.get(symbol);
+                // Unknown symbols are left for the regular sync to report, and partial quotes for
+                // the next poll
+                if (stock == null || stock.getQuote() == null) {
+                    continue;
+                }
+                StockQuote quote = stock.getQuote();
+                if (quote.getPrice() == null || quote.getChange() == null || quote.getChangeInPercent() == null) {
+                    continue;
+                }
+                float[] prices = {
+                        quote.getPrice().floatValue(),
+                        quote.getChange().floatValue(),
+                        quote.getChangeInPercent().floatValue()};
+                float[] previous = lastPrices.get(symbol);
+                if (previous != null && previous[0] == prices[0] && previous[1] == prices[1]
+                        && previous[2] == prices[2]) {
+                    continue;
+                }
+                written.put(symbol, prices);
+
+                ContentValues quoteCV = new ContentValues();
+                quoteCV.put(Contract.Quote.COLUMN_PRICE, prices[0]);
+                quoteCV.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, prices[1]);
+                quoteCV.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE, prices[2]);
+                quoteCV.put(Contract.Quote.COLUMN_LAST_UPDATED, now);
+                operations.add(ContentProviderOperation.newUpdate(Contract.Quote.makeUriForStock(symbol))
+                        .withValues(quoteCV)
+                        .build());
+            }
+        }
+
+        if (operations.isEmpty() || !running) {
+            return false;
+        }
+        try {
+            context.getContentResolver().applyBatch(Contract.AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException exception) {
+            Timber.e(exception, "Error writing live quotes");
+            return false;
+        }
+        lastPrices.putAll(written);
+        Timber.d("Live poll updated %d quotes", operations.size());
+
+        QuoteSnapshot.writeFromProvider(context);
+        context.sendBroadcast(new Intent(QuoteSyncJob.ACTION_DATA_UPDATED));
+        return true;
+    }
+}
@@ -0,0 +1,90 @@
+package com.udacity.stockhawk.sync;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Process;
+import android.text.format.DateUtils;
+
+import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.PrefUtils;
+import com.udacity.stockhawk.data.Watchlists;
+
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * Daily storage maintenance, run while the device is idle and charging: deletes quotes that are
+ * no longer watched, applies the history retention and compacts the database.
+ */
+public class MaintenanceJobService extends JobService {
+
+    // Job ids are shared with QuoteSyncJob's jobs
+    private static final int MAINTENANCE_ID = 4;
+    private static final long PERIOD = DateUtils.DAY_IN_MILLIS;
+
+    private volatile boolean stopped;
+
+    static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo pendingJob : scheduler.getAllPendingJobs()) {
+            if (pendingJob.getId() == MAINTENANCE_ID) {
+                return;
+            }
+        }
+
+        JobInfo.Builder builder = new JobInfo.Builder(MAINTENANCE_ID, new ComponentName(context, MaintenanceJobService.class));
+        builder.setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(PERIOD);
+        scheduler.schedule(builder.build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+        stopped = false;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                maintain();
+                if (!stopped) {
+                    jobFinished(jobParameters, false);
+                }
+            }
+        }, MaintenanceJobService.class.getSimpleName()).start();
+        return true;
+    }
+
+    /**
+     * The provider call cannot be interrupted, but the job is retried so that a run cut short by
+     * the device waking up is made up for.
+     */
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        stopped = true;
+        return true;
+    }
+
+    private void maintain() {
+        Set<String> watched = Watchlists.getStocks(this);
+        Bundle extras = new Bundle();
+        extras.putStringArray(Contract.Maintenance.EXTRA_WATCHED_SYMBOLS, watched.toArray(new String[watched.size()]));
+        extras.putLong(Contract.Maintenance.EXTRA_HISTORY_CUTOFF,
+                System.currentTimeMillis() - PrefUtils.getHistoryRetention(this));
+
+        Bundle result = getContentResolver().call(Contract.Quote.URI, Contract.Maintenance.METHOD_MAINTAIN, null, extras);
+        if (result == null) {
+            return;
+        }
+        Timber.i("Maintenance deleted %d orphan quotes, trimmed %d histories and reclaimed %d bytes",
+                result.getInt(Contract.Maintenance.RESULT_ORPHANS_DELETED),
+                result.getInt(Contract.Maintenance.RESULT_HISTORIES_TRIMMED),
+                result.getLong(Contract.Maintenance.RESULT_BYTES_RECLAIMED));
+    }
+}
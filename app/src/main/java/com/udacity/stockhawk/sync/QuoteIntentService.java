@@ -15,6 +15,15 @@ public class QuoteIntentService extends IntentService {
     @Override
     protected void onHandleIntent(Intent intent) {
         Timber.d("Intent handled");
-        QuoteSyncJob.getQuotes(getApplicationContext());
+        SyncCoordinator.Run run;
+        do {
+            run = SyncCoordinator.onRunStarted();
+            if (run == null) {
+                // Another run is active and picks up this request
+                break;
+            }
+            QuoteSyncJob.getQuotes(getApplicationContext(), run.symbols, null);
+        } while (SyncCoordinator.onRunFinished(run));
+        QuoteSyncJob.notifySyncFinished(getApplicationContext());
     }
 }
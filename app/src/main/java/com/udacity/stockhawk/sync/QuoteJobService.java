@@ -2,25 +2,89 @@ package com.udacity.stockhawk.sync;
 
 import android.app.job.JobParameters;
 import android.app.job.JobService;
-import android.content.Intent;
+import android.os.CancellationSignal;
+import android.os.Process;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import timber.log.Timber;
 
+/**
+ * Runs the sync on a worker thread owned by the job and reports back with
+ * {@link #jobFinished(JobParameters, boolean)}, so the job's wakelock is only held while the
+ * sync actually runs. A stopped job cancels its run between chunks and is rescheduled.
+ */
 public class QuoteJobService extends JobService {
 
+    private final SparseArray<CancellationSignal> runningJobs = new SparseArray<>();
 
     @Override
-    public boolean onStartJob(JobParameters jobParameters) {
-        Timber.d("Intent handled");
-        Intent nowIntent = new Intent(getApplicationContext(), QuoteIntentService.class);
-        getApplicationContext().startService(nowIntent);
+    public boolean onStartJob(final JobParameters jobParameters) {
+        Timber.d("Job %d started", jobParameters.getJobId());
+        String[] symbols = jobParameters.getExtras().getStringArray(QuoteSyncJob.EXTRA_SYMBOLS);
+        Set<String> targets = symbols == null ? null : new HashSet<>(Arrays.asList(symbols));
+        if (!SyncCoordinator.requestSync(targets)) {
+            Timber.d("Sync already pending, job request merged");
+            return false;
+        }
+
+        final CancellationSignal cancellation = new CancellationSignal();
+        synchronized (runningJobs) {
+            runningJobs.put(jobParameters.getJobId(), cancellation);
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                boolean completed = sync(cancellation);
+                synchronized (runningJobs) {
+                    runningJobs.remove(jobParameters.getJobId());
+                }
+                if (completed) {
+                    jobFinished(jobParameters, false);
+                }
+            }
+        }, QuoteJobService.class.getSimpleName() + "-" + jobParameters.getJobId()).start();
         return true;
     }
 
     @Override
     public boolean onStopJob(JobParameters jobParameters) {
-        return false;
+        CancellationSignal cancellation;
+        synchronized (runningJobs) {
+            cancellation = runningJobs.get(jobParameters.getJobId());
+            runningJobs.remove(jobParameters.getJobId());
+        }
+        if (cancellation == null) {
+            return false;
+        }
+        Timber.d("Job %d stopped, cancelling sync", jobParameters.getJobId());
+        cancellation.cancel();
+        return true;
     }
 
-
+    /**
+     * @return false if the run was cancelled
+     */
+    private boolean sync(CancellationSignal cancellation) {
+        SyncCoordinator.Run run;
+        do {
+            run = SyncCoordinator.onRunStarted();
+            if (run == null) {
+                // Another run is active and picks up this request
+                break;
+            }
+            if (!QuoteSyncJob.getQuotes(getApplicationContext(), run.symbols, cancellation)) {
+                SyncCoordinator.onRunCancelled(run);
+                QuoteSyncJob.notifySyncFinished(getApplicationContext());
+                return false;
+            }
+        } while (SyncCoordinator.onRunFinished(run));
+        QuoteSyncJob.notifySyncFinished(getApplicationContext());
+        return true;
+    }
 }
@@ -3,26 +3,38 @@ package com.udacity.stockhawk.sync;
 import android.app.job.JobInfo;
 import android.app.job.JobScheduler;
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.CancellationSignal;
+import android.os.PersistableBundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
+import android.support.annotation.Nullable;
+import android.text.format.DateUtils;
 
 import com.udacity.stockhawk.R;
 import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.HistoryCodec;
 import com.udacity.stockhawk.data.PrefUtils;
+import com.udacity.stockhawk.data.QuoteSnapshot;
+import com.udacity.stockhawk.data.Watchlists;
 
 import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,12 +52,17 @@ import static com.udacity.stockhawk.R.id.price;
 public final class QuoteSyncJob {
 
     public static final String EXTRA_INVALID_STOCK_NAME = "extraInvalidStockName";
+    static final String EXTRA_SYMBOLS = "extraSymbols";
     private static final int ONE_OFF_ID = 2;
     public static final String ACTION_DATA_UPDATED = "com.udacity.stockhawk.ACTION_DATA_UPDATED";
     private static final int PERIOD = 300000;
     private static final int INITIAL_BACKOFF = 10000;
     private static final int PERIODIC_ID = 1;
+    private static final int RETRY_ID = 3;
     private static final int YEARS_OF_HISTORY = 2;
+    private static final int CHUNK_SIZE = 10;
+    // History is weekly, so a series ending within the last week has nothing new to fetch
+    private static final long HISTORY_MAX_AGE = DateUtils.WEEK_IN_MILLIS;
 
     private QuoteSyncJob() {
     }
@@ -64,98 +81,288 @@ public final class QuoteSyncJob {
         sp.edit().putInt(c.getString(R.string.pref_network_status), status).commit();
     }
 
-    static void getQuotes(Context context) {
+    /**
+     * @param targets symbols to refresh, or null to refresh the whole watchlist
+     * @param cancellation checked between chunks, or null if the run cannot be cancelled
+     * @return false if the run was cancelled before all symbols were synced
+     */
+    static boolean getQuotes(Context context, @Nullable Set<String> targets,
+                             @Nullable CancellationSignal cancellation) {
+
+        Timber.d("Running sync job for %s", targets == null ? "all stocks" : targets);
+
+        Set<String> stockPref = Watchlists.getStocks(context);
+        Set<String> stockCopy = new HashSet<>();
+        stockCopy.addAll(stockPref);
+        if (targets != null) {
+            // Symbols removed since the request was made are no longer of interest
+            stockCopy.retainAll(targets);
+            Set<String> removed = new HashSet<>(targets);
+            removed.removeAll(stockCopy);
+            new SymbolRetryQueue(context).clear(removed);
+        }
+
+        Timber.d("1" + stockCopy.toString() + stockCopy.size());
+
+        if (stockCopy.isEmpty()) {
+            if (targets == null) {
+                setNetworkStatus(context, SERVER_INVALID);
+            }
+            return true;
+        }
+        return syncStocks(context, stockCopy, cancellation);
+    }
 
-        Timber.d("Running sync job");
+    static boolean syncStocks(Context context, Set<String> stockCopy, @Nullable CancellationSignal cancellation) {
 
         Calendar from = Calendar.getInstance();
         Calendar to = Calendar.getInstance();
         from.add(Calendar.YEAR, -YEARS_OF_HISTORY);
 
-        try {
+        SyncStats stats = new SyncStats(stockCopy.size());
+        SymbolRetryQueue retryQueue = new SymbolRetryQueue(context);
+        HistoryCache historyCache = new HistoryCache(context);
+        Set<String> failed = new HashSet<>();
+        Set<String> succeeded = new HashSet<>();
+
+        // Quotes synced within the freshness TTL keep being served as they are
+        Set<String> freshQuotes = new HashSet<>();
+        Set<String> freshHistory = new HashSet<>();
+        readFreshness(context, PrefUtils.getFreshnessTtl(context), freshQuotes, freshHistory);
+        List<String> symbols = new ArrayList<>(stockCopy);
+        symbols.removeAll(freshQuotes);
+        if (symbols.size() < stockCopy.size()) {
+            Timber.d("Skipping %d fresh symbols", stockCopy.size() - symbols.size());
+        }
 
-            Set<String> stockPref = PrefUtils.getStocks(context);
-            Set<String> stockCopy = new HashSet<>();
-            stockCopy.addAll(stockPref);
-            String[] stockArray = stockPref.toArray(new String[stockPref.size()]);
+        // Fetching and committing chunk by chunk lets fresh prices show up while the rest of the
+        // watchlist is still loading, and bounds memory by the chunk size
+        boolean cancelled = false;
+        for (int chunkStart = 0; chunkStart < symbols.size(); chunkStart += CHUNK_SIZE) {
+            if (cancellation != null && cancellation.isCanceled()) {
+                Timber.d("Sync cancelled with %d symbols left", symbols.size() - chunkStart);
+                cancelled = true;
+                break;
+            }
+            List<String> chunk = symbols.subList(chunkStart, Math.min(chunkStart + CHUNK_SIZE, symbols.size()));
 
-            Timber.d("1" + stockCopy.toString() + stockArray.length);
+            ArrayList<ContentValues> quoteCVs = fetchChunk(context, chunk, freshHistory, historyCache, from, to, failed);
+            if (!quoteCVs.isEmpty()) {
+                stats.startWrite();
+                boolean written = writeChunk(context, quoteCVs);
+                stats.endWrite(written ? quoteCVs.size() : 0);
 
-            if (stockArray.length == 0) {
-                setNetworkStatus(context, SERVER_INVALID);
+                Set<String> outcome = written ? succeeded : failed;
+                for (ContentValues quoteCV : quoteCVs) {
+                    outcome.add(quoteCV.getAsString(Contract.Quote.COLUMN_SYMBOL));
+                }
             }
-            else {
-                Map<String, Stock> quotes = YahooFinance.get(stockArray);
-                Iterator<String> iterator = stockCopy.iterator();
+        }
 
-                Timber.d("2" + quotes.toString());
+        historyCache.trim();
 
-                ArrayList<ContentValues> quoteCVs = new ArrayList<>();
+        if (!succeeded.isEmpty()) {
+            QuoteSnapshot.writeFromProvider(context);
+        }
 
-                while (iterator.hasNext()) {
-                    String symbol = iterator.next();
+        long now = System.currentTimeMillis();
+        retryQueue.clear(succeeded);
+        retryQueue.recordFailures(failed, now);
+        scheduleRetry(context, retryQueue, now);
 
+        if (failed.isEmpty() || !succeeded.isEmpty()) {
+            setNetworkStatus(context, NETWORK_OK);
+        } else {
+            setNetworkStatus(context, SERVER_DOWN);
+        }
 
-                    Stock stock = quotes.get(symbol);
-                    if (null==stock){
-                        sendBroadcastInvalidStock(context, symbol);
-                        PrefUtils.removeStock(context, symbol);
-                        continue;
-                    } else {
-                        StockQuote quote = stock.getQuote();
+        stats.recordFailures(failed.size());
+        stats.finish();
+        return !cancelled;
+    }
 
-                        if (null == quote.getPrice()) {
-                            sendBroadcastInvalidStock(context, symbol);
-                            PrefUtils.removeStock(context, symbol);
-                            continue;
-                        } else {
+    /**
+     * Rows carrying a history replace the whole quote; price-only rows update just the price
+     * columns and leave the stored history untouched. The chunk is applied as one batch, so it
+     * costs one transaction and one change notification.
+     *
+     * @return false if the batch was rolled back or the database could not be written
+     */
+    private static boolean writeChunk(Context context, List<ContentValues> quoteCVs) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(quoteCVs.size());
+        for (ContentValues quoteCV : quoteCVs) {
+            if (quoteCV.containsKey(Contract.Quote.COLUMN_HISTORY)) {
+                operations.add(ContentProviderOperation.newInsert(Contract.Quote.URI)
+                        .withValues(quoteCV)
+                        .build());
+            } else {
+                operations.add(ContentProviderOperation.newUpdate(
+                        Contract.Quote.makeUriForStock(quoteCV.getAsString(Contract.Quote.COLUMN_SYMBOL)))
+                        .withValues(quoteCV)
+                        .build());
+            }
+        }
+        try {
+            context.getContentResolver().applyBatch(Contract.AUTHORITY, operations);
+            return true;
+        } catch (RemoteException | OperationApplicationException | SQLiteException exception) {
+            // A full disk or a locked database fails the chunk, not the whole sync
+            Timber.e(exception, "Error writing stock quotes");
+            return false;
+        }
+    }
 
-                            float price = quote.getPrice().floatValue();
-                            float change = quote.getChange().floatValue();
-                            float percentChange = quote.getChangeInPercent().floatValue();
+    /**
+     * Collects the stored quotes updated within {@code ttl} and those whose history is recent
+     * enough to keep, in one pass over the small columns.
+     */
+    private static void readFreshness(Context context, long ttl, Set<String> freshQuotes, Set<String> freshHistory) {
+        Cursor cursor = context.getContentResolver().query(
+                Contract.Quote.URI,
+                new String[]{
+                        Contract.Quote.COLUMN_SYMBOL,
+                        Contract.Quote.COLUMN_LAST_UPDATED,
+                        Contract.Quote.COLUMN_HISTORY_END},
+                null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            while (cursor.moveToNext()) {
+                String symbol = cursor.getString(0);
+                long lastUpdated = cursor.getLong(1);
+                if (lastUpdated <= now && now - lastUpdated < ttl) {
+                    freshQuotes.add(symbol);
+                }
+                if (cursor.getLong(2) >= now - HISTORY_MAX_AGE) {
+                    freshHistory.add(symbol);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
 
-                            // WARNING! Don't request historical data for a stock that doesn't exist!
-                            // The request will hang forever X_x
-                            List<HistoricalQuote> history = stock.getHistory(from, to, Interval.WEEKLY);
+    private static ArrayList<ContentValues> fetchChunk(Context context, List<String> chunk, Set<String> freshHistory,
+                                                       HistoryCache historyCache, Calendar from, Calendar to,
+                                                       Set<String> failed) {
+        ArrayList<ContentValues> quoteCVs = new ArrayList<>(chunk.size());
 
-                            StringBuilder historyBuilder = new StringBuilder();
+        Map<String, Stock> quotes;
+        try {
+            quotes = YahooFinance.get(chunk.toArray(new String[chunk.size()]));
+        } catch (IOException exception) {
+            Timber.e(exception, "Error fetching stock quotes");
+            failed.addAll(chunk);
+            return quoteCVs;
+        }
 
-                            for (HistoricalQuote it : history) {
-                                historyBuilder.append(it.getDate().getTimeInMillis());
-                                historyBuilder.append(", ");
-                                historyBuilder.append(it.getClose());
-                                historyBuilder.append("\n");
-                            }
+        Timber.d("2" + quotes.toString());
 
-                            ContentValues quoteCV = new ContentValues();
-                            quoteCV.put(Contract.Quote.COLUMN_SYMBOL, symbol);
-                            quoteCV.put(Contract.Quote.COLUMN_PRICE, price);
-                            quoteCV.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE, percentChange);
-                            quoteCV.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, change);
+        for (String symbol : chunk) {
 
+            Stock stock = quotes.get(symbol);
+            if (null==stock){
+                sendBroadcastInvalidStock(context, symbol);
+                Watchlists.removeFromAll(context, symbol);
+                continue;
+            }
 
-                            quoteCV.put(Contract.Quote.COLUMN_HISTORY, historyBuilder.toString());
+            StockQuote quote = stock.getQuote();
 
-                            quoteCVs.add(quoteCV);
-                        }
-                    }
+            if (null == quote.getPrice()) {
+                sendBroadcastInvalidStock(context, symbol);
+                Watchlists.removeFromAll(context, symbol);
+                continue;
+            }
+            if (quote.getChange() == null || quote.getChangeInPercent() == null) {
+                // A partial quote; the stored row is kept and the symbol retried
+                Timber.w("Incomplete quote for %s", symbol);
+                failed.add(symbol);
+                continue;
+            }
+
+            float price = quote.getPrice().floatValue();
+            float change = quote.getChange().floatValue();
+            float percentChange = quote.getChangeInPercent().floatValue();
 
+            ContentValues quoteCV = new ContentValues();
+            quoteCV.put(Contract.Quote.COLUMN_SYMBOL, symbol);
+            quoteCV.put(Contract.Quote.COLUMN_LAST_UPDATED, System.currentTimeMillis());
+            quoteCV.put(Contract.Quote.COLUMN_PRICE, price);
+            quoteCV.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE, percentChange);
+            quoteCV.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, change);
+
+            if (freshHistory.contains(symbol)) {
+                quoteCVs.add(quoteCV);
+                continue;
+            }
+
+            long now = System.currentTimeMillis();
+            byte[] encodedHistory = historyCache.get(symbol, Interval.WEEKLY, YEARS_OF_HISTORY, now);
+            if (encodedHistory == null) {
+                // WARNING! Don't request historical data for a stock that doesn't exist!
+                // The request will hang forever X_x
+                List<HistoricalQuote> history;
+                try {
+                    history = stock.getHistory(from, to, Interval.WEEKLY);
+                } catch (IOException exception) {
+                    Timber.w(exception, "Error fetching history for %s", symbol);
+                    failed.add(symbol);
+                    continue;
                 }
 
-                context.getContentResolver()
-                        .bulkInsert(
-                                Contract.Quote.URI,
-                                quoteCVs.toArray(new ContentValues[quoteCVs.size()]));
+                HistoryCodec.Builder historyBuilder = new HistoryCodec.Builder();
 
-                Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED);
-                context.sendBroadcast(dataUpdatedIntent);
-                setNetworkStatus(context, NETWORK_OK);
+                for (HistoricalQuote it : history) {
+                    if (it.getClose() != null) {
+                        historyBuilder.add(it.getDate().getTimeInMillis(), it.getClose().floatValue());
+                    }
+                }
+                encodedHistory = historyBuilder.build();
+                historyCache.put(symbol, Interval.WEEKLY, YEARS_OF_HISTORY, now, encodedHistory);
             }
 
-        } catch (IOException exception) {
-            Timber.e(exception, "Error fetching stock quotes");
-            setNetworkStatus(context, SERVER_DOWN);
+            if (stock.getName() != null) {
+                quoteCV.put(Contract.Quote.COLUMN_NAME, stock.getName());
+            }
+            if (stock.getStats() != null && stock.getStats().getSharesOutstanding() != null) {
+                quoteCV.put(Contract.Quote.COLUMN_SHARES_OUTSTANDING, stock.getStats().getSharesOutstanding());
+            }
+            quoteCV.put(Contract.Quote.COLUMN_HISTORY, encodedHistory);
+
+            quoteCVs.add(quoteCV);
         }
+
+        return quoteCVs;
+    }
+
+    /**
+     * Schedules one job for the symbols that become due first; the symbols due later are picked
+     * up by rescheduling at the end of that run.
+     */
+    private static void scheduleRetry(Context context, SymbolRetryQueue retryQueue, long now) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+
+        long nextAttemptAt = retryQueue.nextAttemptAt();
+        if (nextAttemptAt == Long.MAX_VALUE) {
+            scheduler.cancel(RETRY_ID);
+            return;
+        }
+
+        Set<String> symbols = retryQueue.dueSymbols(nextAttemptAt);
+        Timber.d("Retrying %s in %d ms", symbols, nextAttemptAt - now);
+
+        PersistableBundle extras = new PersistableBundle();
+        extras.putStringArray(EXTRA_SYMBOLS, symbols.toArray(new String[symbols.size()]));
+
+        JobInfo.Builder builder = new JobInfo.Builder(RETRY_ID, new ComponentName(context, QuoteJobService.class));
+        builder.setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setMinimumLatency(Math.max(0, nextAttemptAt - now))
+                .setExtras(extras);
+
+        scheduler.schedule(builder.build());
     }
 
     private static void schedulePeriodic(Context context) {
@@ -171,26 +378,58 @@ public final class QuoteSyncJob {
 
 
         JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        // Compared with the built job, whose interval is already clamped to the platform minimum
+        // (15 minutes from API 24) just like the one the scheduler stored
+        JobInfo job = builder.build();
+
+        for (JobInfo pendingJob : scheduler.getAllPendingJobs()) {
+            if (pendingJob.getId() == PERIODIC_ID
+                    && pendingJob.getIntervalMillis() == job.getIntervalMillis()
+                    && pendingJob.getNetworkType() == job.getNetworkType()) {
+                Timber.d("Periodic task already scheduled");
+                return;
+            }
+        }
 
-        scheduler.schedule(builder.build());
+        scheduler.schedule(job);
     }
 
 
+    /**
+     * Sent once the queued runs are done, whether or not they wrote anything. A refresh of quotes
+     * that are all still fresh writes nothing, so this is the only signal that it has finished.
+     */
+    static void notifySyncFinished(Context context) {
+        context.sendBroadcast(new Intent(ACTION_DATA_UPDATED));
+    }
+
     public static synchronized void initialize(final Context context) {
 
         schedulePeriodic(context);
+        MaintenanceJobService.schedule(context);
         syncImmediately(context);
 
     }
 
     public static synchronized void syncImmediately(Context context) {
+        syncImmediately(context, null);
+    }
+
+    /**
+     * @param symbols symbols to refresh, or null to refresh the whole watchlist
+     */
+    public static synchronized void syncImmediately(Context context, @Nullable Set<String> symbols) {
 
         ConnectivityManager cm =
                 (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
         NetworkInfo networkInfo = cm.getActiveNetworkInfo();
         if (networkInfo != null && networkInfo.isConnectedOrConnecting()) {
-            Intent nowIntent = new Intent(context, QuoteIntentService.class);
-            context.startService(nowIntent);
+            if (SyncCoordinator.requestSync(symbols)) {
+                Intent nowIntent = new Intent(context, QuoteIntentService.class);
+                context.startService(nowIntent);
+            } else {
+                Timber.d("Sync already pending, request merged");
+            }
         } else {
             setNetworkStatus(context.getApplicationContext(), NETWORK_DOWN);
             JobInfo.Builder builder = new JobInfo.Builder(ONE_OFF_ID, new ComponentName(context, QuoteJobService.class));
@@ -202,12 +441,41 @@ public final class QuoteSyncJob {
 
             JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
 
+            Set<String> targets = mergeWithPendingOneOff(scheduler, symbols);
+            if (targets != null) {
+                PersistableBundle extras = new PersistableBundle();
+                extras.putStringArray(EXTRA_SYMBOLS, targets.toArray(new String[targets.size()]));
+                builder.setExtras(extras);
+            }
+
             scheduler.schedule(builder.build());
 
 
         }
     }
 
+    /**
+     * Scheduling a job replaces any pending job with the same id, so symbols targeted by a
+     * pending one-off sync have to be carried over into the new one.
+     */
+    @Nullable
+    private static Set<String> mergeWithPendingOneOff(JobScheduler scheduler, @Nullable Set<String> symbols) {
+        if (symbols == null) {
+            return null;
+        }
+        Set<String> targets = new HashSet<>(symbols);
+        for (JobInfo pendingJob : scheduler.getAllPendingJobs()) {
+            if (pendingJob.getId() == ONE_OFF_ID) {
+                String[] pendingSymbols = pendingJob.getExtras().getStringArray(EXTRA_SYMBOLS);
+                if (pendingSymbols == null) {
+                    return null;
+                }
+                targets.addAll(Arrays.asList(pendingSymbols));
+            }
+        }
+        return targets;
+    }
+
     private static ContentValues makeInvalidContentValues(String symbol){
         ContentValues quoteCV = new ContentValues();
         quoteCV.put(Contract.Quote.COLUMN_SYMBOL, symbol);
@@ -216,7 +484,7 @@ public final class QuoteSyncJob {
         quoteCV.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, 0f);
 
 
-        quoteCV.put(Contract.Quote.COLUMN_HISTORY, Contract.Quote.INVALID_STOCK_HISTORY_MARKER);
+        quoteCV.put(Contract.Quote.COLUMN_HISTORY, HistoryCodec.invalidMarker());
         return quoteCV;
     }
 
@@ -0,0 +1,80 @@
+package com.udacity.stockhawk.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Symbols whose last fetch failed, each with its own exponential backoff. Entries are stored as
+ * {@code symbol -> "attempts:nextAttemptAt"} so they survive process death.
+ */
+final class SymbolRetryQueue {
+
+    private static final String PREFS_NAME = "symbol_retry_queue";
+    private static final long INITIAL_BACKOFF = 30 * 1000;
+    private static final long MAX_BACKOFF = 60 * 60 * 1000;
+
+    private final SharedPreferences prefs;
+
+    SymbolRetryQueue(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    void recordFailures(Collection<String> symbols, long now) {
+        if (symbols.isEmpty()) {
+            return;
+        }
+        SharedPreferences.Editor editor = prefs.edit();
+        for (String symbol : symbols) {
+            int attempts = parseAttempts(prefs.getString(symbol, null)) + 1;
+            long backoff = Math.min(INITIAL_BACKOFF << Math.min(attempts - 1, 16), MAX_BACKOFF);
+            editor.putString(symbol, attempts + ":" + (now + backoff));
+        }
+        editor.apply();
+    }
+
+    void clear(Collection<String> symbols) {
+        SharedPreferences.Editor editor = prefs.edit();
+        for (String symbol : symbols) {
+            editor.remove(symbol);
+        }
+        editor.apply();
+    }
+
+    /**
+     * @return the earliest time a queued symbol may be retried, or {@link Long#MAX_VALUE} when
+     * nothing is queued.
+     */
+    long nextAttemptAt() {
+        long earliest = Long.MAX_VALUE;
+        for (Object value : prefs.getAll().values()) {
+            earliest = Math.min(earliest, parseNextAttempt((String) value));
+        }
+        return earliest;
+    }
+
+    Set<String> dueSymbols(long now) {
+        Set<String> due = new HashSet<>();
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (parseNextAttempt((String) entry.getValue()) <= now) {
+                due.add(entry.getKey());
+            }
+        }
+        return due;
+    }
+
+    private static int parseAttempts(String value) {
+        if (value == null) {
+            return 0;
+        }
+        return Integer.parseInt(value.substring(0, value.indexOf(':')));
+    }
+
+    private static long parseNextAttempt(String value) {
+        return Long.parseLong(value.substring(value.indexOf(':') + 1));
+    }
+}
@@ -0,0 +1,146 @@
+package com.udacity.stockhawk.sync;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps at most one sync run in flight. Requests made before a queued run starts attach to it,
+ * requests made while a run is active collapse into a single follow-up run.
+ * <p>
+ * A request either targets a set of symbols or the whole watchlist; target sets are merged and
+ * a whole-watchlist request absorbs any targets queued alongside it.
+ * <p>
+ * Each run holds a {@link Run} token. A run is only given up on once its worker thread has died,
+ * and reports from a run that was given up on are ignored, so two runs never overlap.
+ */
+final class SyncCoordinator {
+
+    private static final int IDLE = 0;
+    private static final int QUEUED = 1;
+    private static final int RUNNING = 2;
+
+    // A queued run that never started (e.g. the service could not be started) must not block
+    // syncing forever
+    private static final long STALE_AFTER = 10 * 60 * 1000;
+
+    private static int state = IDLE;
+    private static long stateChangedAt;
+    private static Run current;
+    private static boolean pendingFullSync;
+    private static final Set<String> pendingSymbols = new HashSet<>();
+
+    private SyncCoordinator() {
+    }
+
+    /**
+     * @param symbols symbols to refresh, or null for the whole watchlist
+     * @return true when the caller has to start a new run, false when the request was merged
+     * into a queued or running one.
+     */
+    static synchronized boolean requestSync(@Nullable Set<String> symbols) {
+        if (isAbandoned()) {
+            current = null;
+            setState(IDLE);
+        }
+
+        if (symbols == null) {
+            pendingFullSync = true;
+            pendingSymbols.clear();
+        } else if (!pendingFullSync) {
+            pendingSymbols.addAll(symbols);
+        }
+
+        if (state == IDLE) {
+            setState(QUEUED);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the token of the starting run, or null when another run is still active; a queued
+     * run that was given up on and started late leaves its requests to that run.
+     */
+    @Nullable
+    static synchronized Run onRunStarted() {
+        if (state == RUNNING && current != null && current.worker != Thread.currentThread()
+                && current.worker.isAlive()) {
+            return null;
+        }
+        current = new Run(pendingFullSync ? null : new HashSet<>(pendingSymbols));
+        setState(RUNNING);
+        pendingFullSync = false;
+        pendingSymbols.clear();
+        return current;
+    }
+
+    /**
+     * @return true when requests arrived during the run and the caller should run once more.
+     */
+    static synchronized boolean onRunFinished(Run run) {
+        if (run != current) {
+            return false;
+        }
+        if (pendingFullSync || !pendingSymbols.isEmpty()) {
+            setState(QUEUED);
+            return true;
+        }
+        current = null;
+        setState(IDLE);
+        return false;
+    }
+
+    /**
+     * Puts the symbols of a run that stopped early back in the queue, so the next run picks them
+     * up along with anything requested meanwhile. Symbols the run already refreshed are skipped
+     * again by the freshness check.
+     */
+    static synchronized void onRunCancelled(Run run) {
+        Set<String> symbols = run.symbols;
+        if (symbols == null) {
+            pendingFullSync = true;
+            pendingSymbols.clear();
+        } else if (!pendingFullSync) {
+            pendingSymbols.addAll(symbols);
+        }
+        if (run == current) {
+            current = null;
+            setState(IDLE);
+        }
+    }
+
+    /**
+     * A running run is only abandoned once its worker has died without reporting back, so a
+     * slow run is never joined by a second one.
+     */
+    private static boolean isAbandoned() {
+        switch (state) {
+            case QUEUED:
+                return SystemClock.elapsedRealtime() - stateChangedAt > STALE_AFTER;
+            case RUNNING:
+                return current == null || !current.worker.isAlive();
+            default:
+                return false;
+        }
+    }
+
+    private static void setState(int newState) {
+        state = newState;
+        stateChangedAt = SystemClock.elapsedRealtime();
+    }
+
+    static final class Run {
+
+        // The symbols to refresh, or null for the whole watchlist
+        @Nullable
+        final Set<String> symbols;
+        private final Thread worker = Thread.currentThread();
+
+        private Run(@Nullable Set<String> symbols) {
+            this.symbols = symbols;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.udacity.stockhawk.sync;
+
+import android.os.SystemClock;
+
+import timber.log.Timber;
+
+/**
+ * Timings of a single sync run. The most recent finished run stays available through
+ * {@link #last()} for diagnostics and load testing.
+ */
+final class SyncStats {
+
+    private static volatile SyncStats last;
+
+    final int symbolsRequested;
+    final long startedAt;
+    int symbolsWritten;
+    int failures;
+    long writeMillis;
+    long totalMillis;
+
+    private long writeStartedAt;
+
+    SyncStats(int symbolsRequested) {
+        this.symbolsRequested = symbolsRequested;
+        startedAt = SystemClock.elapsedRealtime();
+    }
+
+    static SyncStats last() {
+        return last;
+    }
+
+    void startWrite() {
+        writeStartedAt = SystemClock.elapsedRealtime();
+    }
+
+    void endWrite(int rows) {
+        writeMillis += SystemClock.elapsedRealtime() - writeStartedAt;
+        symbolsWritten += rows;
+    }
+
+    void recordFailures(int count) {
+        failures += count;
+    }
+
+    void finish() {
+        totalMillis = SystemClock.elapsedRealtime() - startedAt;
+        last = this;
+        Timber.d("Sync finished: %d/%d symbols written in %d ms (%d ms writing), %d failures",
+                symbolsWritten, symbolsRequested, totalMillis, writeMillis, failures);
+    }
+
+    float symbolsPerSecond() {
+        return totalMillis == 0 ? 0f : symbolsWritten * 1000f / totalMillis;
+    }
+}
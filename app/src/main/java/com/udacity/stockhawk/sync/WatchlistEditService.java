@@ -0,0 +1,211 @@
+package com.udacity.stockhawk.sync;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+
+import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.PrefUtils;
+import com.udacity.stockhawk.data.QuoteSnapshot;
+import com.udacity.stockhawk.data.Watchlists;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import timber.log.Timber;
+
+import static com.udacity.stockhawk.sync.QuoteSyncJob.ACTION_DATA_UPDATED;
+
+/**
+ * Edits watchlists off the main thread. However many symbols are removed, the memberships and
+ * the quotes that go with them are deleted in one batch, so observers and the widget are updated
+ * once. The UI follows list changes through the loaders and the current-watchlist preference.
+ */
+public class WatchlistEditService extends IntentService {
+
+    private static final String ACTION_ADD = "com.udacity.stockhawk.ACTION_ADD_STOCK";
+    private static final String ACTION_REMOVE = "com.udacity.stockhawk.ACTION_REMOVE_STOCKS";
+    private static final String ACTION_CREATE = "com.udacity.stockhawk.ACTION_CREATE_WATCHLIST";
+    private static final String ACTION_RENAME = "com.udacity.stockhawk.ACTION_RENAME_WATCHLIST";
+    private static final String ACTION_DELETE = "com.udacity.stockhawk.ACTION_DELETE_WATCHLIST";
+    private static final String ACTION_SET_INDEX_WEIGHTING = "com.udacity.stockhawk.ACTION_SET_INDEX_WEIGHTING";
+    private static final String EXTRA_WATCHLIST_ID = "watchlistId";
+    private static final String EXTRA_NAME = "name";
+    private static final String EXTRA_SYMBOLS = "symbols";
+    private static final String EXTRA_WEIGHTING = "weighting";
+
+    public WatchlistEditService() {
+        super(WatchlistEditService.class.getSimpleName());
+    }
+
+    /**
+     * Adds the symbol to the list and syncs its quote.
+     */
+    public static void startAdd(Context context, long watchlistId, String symbol) {
+        Intent intent = new Intent(context, WatchlistEditService.class);
+        intent.setAction(ACTION_ADD);
+        intent.putExtra(EXTRA_WATCHLIST_ID, watchlistId);
+        intent.putExtra(EXTRA_SYMBOLS, new String[]{symbol});
+        context.startService(intent);
+    }
+
+    public static void startRemove(Context context, long watchlistId, Collection<String> symbols) {
+        Intent intent = new Intent(context, WatchlistEditService.class);
+        intent.setAction(ACTION_REMOVE);
+        intent.putExtra(EXTRA_WATCHLIST_ID, watchlistId);
+        intent.putExtra(EXTRA_SYMBOLS, symbols.toArray(new String[symbols.size()]));
+        context.startService(intent);
+    }
+
+    /**
+     * Creates the list and makes it the current one. Nothing happens if the name is taken.
+     */
+    public static void startCreate(Context context, String name) {
+        Intent intent = new Intent(context, WatchlistEditService.class);
+        intent.setAction(ACTION_CREATE);
+        intent.putExtra(EXTRA_NAME, name);
+        context.startService(intent);
+    }
+
+    /**
+     * Nothing happens if another list has the name.
+     */
+    public static void startRename(Context context, long watchlistId, String name) {
+        Intent intent = new Intent(context, WatchlistEditService.class);
+        intent.setAction(ACTION_RENAME);
+        intent.putExtra(EXTRA_WATCHLIST_ID, watchlistId);
+        intent.putExtra(EXTRA_NAME, name);
+        context.startService(intent);
+    }
+
+    /**
+     * Deletes the list with its members; the default list is kept. If it was the current list,
+     * the default list becomes current.
+     */
+    public static void startDelete(Context context, long watchlistId) {
+        Intent intent = new Intent(context, WatchlistEditService.class);
+        intent.setAction(ACTION_DELETE);
+        intent.putExtra(EXTRA_WATCHLIST_ID, watchlistId);
+        context.startService(intent);
+    }
+
+    /**
+     * Stores the weighting and rebuilds the watchlist index with it; an existing index keeps the
+     * weighting it was built with until then.
+     */
+    public static void startSetIndexWeighting(Context context, String weighting) {
+        Intent intent = new Intent(context, WatchlistEditService.class);
+        intent.setAction(ACTION_SET_INDEX_WEIGHTING);
+        intent.putExtra(EXTRA_WEIGHTING, weighting);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        String action = intent.getAction();
+        if (ACTION_SET_INDEX_WEIGHTING.equals(action)) {
+            setIndexWeighting(intent.getStringExtra(EXTRA_WEIGHTING));
+            return;
+        }
+        if (ACTION_CREATE.equals(action)) {
+            create(intent.getStringExtra(EXTRA_NAME));
+            return;
+        }
+        if (!intent.hasExtra(EXTRA_WATCHLIST_ID)) {
+            return;
+        }
+        long watchlistId = intent.getLongExtra(EXTRA_WATCHLIST_ID, 0);
+        String[] symbols = intent.getStringArrayExtra(EXTRA_SYMBOLS);
+
+        if (ACTION_ADD.equals(action)) {
+            if (symbols != null && symbols.length != 0) {
+                add(watchlistId, new HashSet<>(Arrays.asList(symbols)));
+            }
+        } else if (ACTION_REMOVE.equals(action)) {
+            if (symbols != null && symbols.length != 0) {
+                remove(watchlistId, Arrays.asList(symbols));
+            }
+        } else if (ACTION_RENAME.equals(action)) {
+            rename(watchlistId, intent.getStringExtra(EXTRA_NAME));
+        } else if (ACTION_DELETE.equals(action)) {
+            delete(watchlistId);
+        }
+    }
+
+    private void add(long watchlistId, Set<String> symbols) {
+        Watchlists.addStocks(this, watchlistId, symbols);
+        QuoteSyncJob.syncImmediately(this, symbols);
+    }
+
+    private void remove(long watchlistId, Collection<String> symbols) {
+        if (!Watchlists.removeStocks(this, watchlistId, symbols)) {
+            return;
+        }
+        Timber.d("Removed %d stocks", symbols.size());
+
+        onUnwatched(symbols);
+        QuoteSyncJob.setNetworkStatus(this, QuoteSyncJob.SERVER_INVALID);
+        sendBroadcast(new Intent(ACTION_DATA_UPDATED));
+    }
+
+    private void create(String name) {
+        if (name == null || name.isEmpty()) {
+            return;
+        }
+        long watchlistId = Watchlists.add(this, name);
+        if (watchlistId == -1) {
+            Timber.d("A watchlist named %s already exists", name);
+            return;
+        }
+        PrefUtils.setCurrentWatchlist(this, watchlistId);
+    }
+
+    private void rename(long watchlistId, String name) {
+        if (name == null || name.isEmpty()) {
+            return;
+        }
+        if (!Watchlists.rename(this, watchlistId, name)) {
+            Timber.d("Could not rename watchlist %d to %s", watchlistId, name);
+        }
+    }
+
+    private void delete(long watchlistId) {
+        Set<String> members = Watchlists.getStocks(this, watchlistId);
+        if (!Watchlists.delete(this, watchlistId)) {
+            return;
+        }
+        Timber.d("Deleted watchlist %d with %d stocks", watchlistId, members.size());
+
+        if (PrefUtils.getCurrentWatchlist(this) == watchlistId) {
+            PrefUtils.setCurrentWatchlist(this, Contract.Watchlist.DEFAULT_ID);
+        }
+        onUnwatched(members);
+        sendBroadcast(new Intent(ACTION_DATA_UPDATED));
+    }
+
+    /**
+     * Symbols still on another list keep being synced; the rest leave the retry queue, and the
+     * snapshot is rewritten without their quotes.
+     */
+    private void onUnwatched(Collection<String> symbols) {
+        Set<String> unwatched = new HashSet<>(symbols);
+        unwatched.removeAll(Watchlists.getStocks(this));
+        new SymbolRetryQueue(this).clear(unwatched);
+
+        QuoteSnapshot.writeFromProvider(this);
+    }
+
+    private void setIndexWeighting(String weighting) {
+        if (weighting == null) {
+            return;
+        }
+        PrefUtils.setIndexWeighting(this, weighting);
+        // Deleting the index row clears its members, and the provider builds it again right away
+        getContentResolver().delete(Contract.Quote.makeUriForStock(Contract.Quote.INDEX_SYMBOL), null, null);
+
+        QuoteSnapshot.writeFromProvider(this);
+        sendBroadcast(new Intent(ACTION_DATA_UPDATED));
+    }
+}
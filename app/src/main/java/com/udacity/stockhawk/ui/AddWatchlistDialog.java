@@ -0,0 +1,101 @@
+package com.udacity.stockhawk.ui;
+
+import android.annotation.SuppressLint;
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.app.DialogFragment;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.view.KeyEvent;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.Window;
+import android.view.WindowManager;
+import android.widget.EditText;
+import android.widget.TextView;
+
+import com.udacity.stockhawk.R;
+
+import butterknife.BindView;
+import butterknife.ButterKnife;
+
+
+/**
+ * Names a new watchlist, or renames one when created with {@link #forRename(long, String)}.
+ */
+public class AddWatchlistDialog extends DialogFragment {
+
+    private static final String ARG_WATCHLIST_ID = "watchlistId";
+    private static final String ARG_NAME = "name";
+
+    @SuppressWarnings("WeakerAccess")
+    @BindView(R.id.dialog_watchlist)
+    EditText name;
+
+    static AddWatchlistDialog forRename(long watchlistId, String currentName) {
+        Bundle args = new Bundle();
+        args.putLong(ARG_WATCHLIST_ID, watchlistId);
+        args.putString(ARG_NAME, currentName);
+        AddWatchlistDialog dialog = new AddWatchlistDialog();
+        dialog.setArguments(args);
+        return dialog;
+    }
+
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+
+        LayoutInflater inflater = LayoutInflater.from(getActivity());
+        @SuppressLint("InflateParams") View custom = inflater.inflate(R.layout.add_watchlist_dialog, null);
+
+        ButterKnife.bind(this, custom);
+
+        final boolean rename = getArguments() != null && getArguments().containsKey(ARG_WATCHLIST_ID);
+        if (rename && savedInstanceState == null) {
+            name.setText(getArguments().getString(ARG_NAME));
+            name.selectAll();
+        }
+
+        name.setOnEditorActionListener(new TextView.OnEditorActionListener() {
+            @Override
+            public boolean onEditorAction(TextView v, int actionId, KeyEvent event) {
+                addWatchlist();
+                return true;
+            }
+        });
+        builder.setView(custom);
+
+        builder.setMessage(getString(rename ? R.string.dialog_rename_watchlist_title : R.string.dialog_watchlist_title));
+        builder.setPositiveButton(getString(rename ? R.string.dialog_rename : R.string.dialog_add),
+                new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int id) {
+                        addWatchlist();
+                    }
+                });
+        builder.setNegativeButton(getString(R.string.dialog_cancel), null);
+
+        Dialog dialog = builder.create();
+
+        Window window = dialog.getWindow();
+        if (window != null) {
+            window.setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_STATE_VISIBLE);
+        }
+
+        return dialog;
+    }
+
+    private void addWatchlist() {
+        Activity parent = getActivity();
+        if (parent instanceof MainActivity) {
+            Bundle args = getArguments();
+            if (args != null && args.containsKey(ARG_WATCHLIST_ID)) {
+                ((MainActivity) parent).renameWatchlist(args.getLong(ARG_WATCHLIST_ID), name.getText().toString());
+            } else {
+                ((MainActivity) parent).addWatchlist(name.getText().toString());
+            }
+        }
+        dismissAllowingStateLoss();
+    }
+}
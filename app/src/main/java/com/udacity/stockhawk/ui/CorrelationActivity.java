@@ -0,0 +1,80 @@
+package com.udacity.stockhawk.ui;
+
+import android.os.Bundle;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.Loader;
+import android.support.v7.app.AppCompatActivity;
+import android.view.View;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.data.CorrelationEngine;
+
+import butterknife.BindView;
+import butterknife.ButterKnife;
+
+public class CorrelationActivity extends AppCompatActivity
+        implements LoaderManager.LoaderCallbacks<CorrelationEngine.Matrix>,
+        CorrelationHeatmapView.OnCellSelectedListener {
+
+    private static final int CORRELATION_LOADER = 0;
+
+    @SuppressWarnings("WeakerAccess")
+    @BindView(R.id.correlation_heatmap)
+    CorrelationHeatmapView heatmap;
+    @SuppressWarnings("WeakerAccess")
+    @BindView(R.id.correlation_selection)
+    TextView selection;
+    @SuppressWarnings("WeakerAccess")
+    @BindView(R.id.correlation_progress)
+    ProgressBar progress;
+
+    private CorrelationEngine.Matrix matrix;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_correlation);
+        ButterKnife.bind(this);
+
+        heatmap.setOnCellSelectedListener(this);
+        getSupportLoaderManager().initLoader(CORRELATION_LOADER, null, this);
+    }
+
+    @Override
+    public Loader<CorrelationEngine.Matrix> onCreateLoader(int id, Bundle args) {
+        return new CorrelationLoader(this);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<CorrelationEngine.Matrix> loader, CorrelationEngine.Matrix data) {
+        progress.setVisibility(View.GONE);
+        matrix = data;
+        heatmap.setMatrix(data);
+        if (data == null || data.size() < 2) {
+            selection.setText(R.string.correlation_not_enough_stocks);
+        }
+    }
+
+    @Override
+    public void onLoaderReset(Loader<CorrelationEngine.Matrix> loader) {
+        matrix = null;
+        heatmap.setMatrix(null);
+    }
+
+    @Override
+    public void onCellSelected(int row, int column) {
+        if (matrix == null) {
+            return;
+        }
+        float value = matrix.get(row, column);
+        if (Float.isNaN(value)) {
+            selection.setText(getString(R.string.correlation_cell_unknown_FORMAT,
+                    matrix.symbols[row], matrix.symbols[column]));
+        } else {
+            selection.setText(getString(R.string.correlation_cell_FORMAT,
+                    matrix.symbols[row], matrix.symbols[column], value));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.udacity.stockhawk.ui;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.data.CorrelationEngine;
+
+/**
+ * Square heatmap of a correlation matrix: green for positive, red for negative and white for
+ * none. The matrix is rendered once into a bitmap with one pixel per cell, which is then scaled
+ * to the view, so drawing costs the same for any number of symbols.
+ */
+public class CorrelationHeatmapView extends View {
+
+    interface OnCellSelectedListener {
+        void onCellSelected(int row, int column);
+    }
+
+    private final Paint bitmapPaint = new Paint();
+    private final Rect source = new Rect();
+    private final Rect destination = new Rect();
+    private final int positiveColor;
+    private final int negativeColor;
+    private final int missingColor;
+
+    private Bitmap bitmap;
+    private int size;
+    private OnCellSelectedListener listener;
+
+    public CorrelationHeatmapView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        // Keep cells sharp when scaled up
+        bitmapPaint.setFilterBitmap(false);
+        positiveColor = ContextCompat.getColor(context, R.color.material_green_700);
+        negativeColor = ContextCompat.getColor(context, R.color.material_red_700);
+        missingColor = ContextCompat.getColor(context, R.color.material_gray_600);
+    }
+
+    void setOnCellSelectedListener(OnCellSelectedListener listener) {
+        this.listener = listener;
+    }
+
+    void setMatrix(CorrelationEngine.Matrix matrix) {
+        if (bitmap != null) {
+            bitmap.recycle();
+            bitmap = null;
+        }
+        size = matrix == null ? 0 : matrix.size();
+        if (size > 0) {
+            int[] pixels = new int[size * size];
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    pixels[i * size + j] = colorFor(matrix.get(i, j));
+                }
+            }
+            bitmap = Bitmap.createBitmap(pixels, size, size, Bitmap.Config.ARGB_8888);
+        }
+        invalidate();
+    }
+
+    private int colorFor(float value) {
+        if (Float.isNaN(value)) {
+            return missingColor;
+        }
+        int target = value >= 0 ? positiveColor : negativeColor;
+        float amount = Math.min(Math.abs(value), 1f);
+        return Color.rgb(
+                blend(Color.red(target), amount),
+                blend(Color.green(target), amount),
+                blend(Color.blue(target), amount));
+    }
+
+    private static int blend(int channel, float amount) {
+        return Math.round(255 + (channel - 255) * amount);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        int side = Math.min(getMeasuredWidth(), getMeasuredHeight());
+        setMeasuredDimension(side, side);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (bitmap == null) {
+            return;
+        }
+        source.set(0, 0, size, size);
+        destination.set(getPaddingLeft(), getPaddingTop(),
+                getWidth() - getPaddingRight(), getHeight() - getPaddingBottom());
+        canvas.drawBitmap(bitmap, source, destination, bitmapPaint);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (size == 0 || listener == null) {
+            return super.onTouchEvent(event);
+        }
+        if (event.getAction() == MotionEvent.ACTION_UP) {
+            float cellWidth = (getWidth() - getPaddingLeft() - getPaddingRight()) / (float) size;
+            float cellHeight = (getHeight() - getPaddingTop() - getPaddingBottom()) / (float) size;
+            int column = (int) ((event.getX() - getPaddingLeft()) / cellWidth);
+            int row = (int) ((event.getY() - getPaddingTop()) / cellHeight);
+            if (row >= 0 && row < size && column >= 0 && column < size) {
+                listener.onCellSelected(row, column);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,132 @@
+package com.udacity.stockhawk.ui;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.CorrelationEngine;
+import com.udacity.stockhawk.data.HistoryCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the correlation matrix of every valid quote. The synthetic index row is left out, as it
+ * is derived from the other quotes. The last matrix is kept together with a fingerprint of the
+ * symbols and their history end dates, and only recomputed once a history has changed.
+ */
+class CorrelationLoader extends AsyncTaskLoader<CorrelationEngine.Matrix> {
+
+    private static final String VALID_SELECTION =
+            Contract.Quote.COLUMN_HISTORY_END + " != " + Contract.Quote.HISTORY_END_INVALID
+                    + " AND " + Contract.Quote.COLUMN_SYMBOL + " != ?";
+    private static final String[] VALID_SELECTION_ARGS = {Contract.Quote.INDEX_SYMBOL};
+
+    private static CorrelationEngine.Matrix cachedMatrix;
+    private static long cachedFingerprint;
+
+    private final ForceLoadContentObserver observer = new ForceLoadContentObserver();
+    private CorrelationEngine.Matrix matrix;
+
+    CorrelationLoader(Context context) {
+        super(context);
+    }
+
+    @Override
+    public CorrelationEngine.Matrix loadInBackground() {
+        long fingerprint = fingerprint();
+        synchronized (CorrelationLoader.class) {
+            if (cachedMatrix != null && cachedFingerprint == fingerprint) {
+                return cachedMatrix;
+            }
+        }
+
+        Cursor cursor = getContext().getContentResolver().query(
+                Contract.Quote.URI,
+                new String[]{Contract.Quote.COLUMN_SYMBOL, Contract.Quote.COLUMN_HISTORY},
+                VALID_SELECTION, VALID_SELECTION_ARGS, Contract.Quote.COLUMN_SYMBOL);
+        if (cursor == null) {
+            return null;
+        }
+
+        List<String> symbols = new ArrayList<>(cursor.getCount());
+        List<HistoryCodec.History> histories = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                try {
+                    histories.add(HistoryCodec.decode(cursor.getBlob(1)));
+                    symbols.add(cursor.getString(0));
+                } catch (IllegalArgumentException ignored) {
+                    // Leave out histories that cannot be decoded
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        CorrelationEngine.Matrix result = CorrelationEngine.compute(
+                symbols.toArray(new String[symbols.size()]),
+                histories.toArray(new HistoryCodec.History[histories.size()]));
+        synchronized (CorrelationLoader.class) {
+            cachedMatrix = result;
+            cachedFingerprint = fingerprint;
+        }
+        return result;
+    }
+
+    /**
+     * Reads only the small columns; a changed history always moves its history end.
+     */
+    private long fingerprint() {
+        Cursor cursor = getContext().getContentResolver().query(
+                Contract.Quote.URI,
+                new String[]{Contract.Quote.COLUMN_SYMBOL, Contract.Quote.COLUMN_HISTORY_END},
+                VALID_SELECTION, VALID_SELECTION_ARGS, Contract.Quote.COLUMN_SYMBOL);
+        if (cursor == null) {
+            return 0L;
+        }
+        long fingerprint = 1L;
+        try {
+            while (cursor.moveToNext()) {
+                fingerprint = 31 * fingerprint + cursor.getString(0).hashCode();
+                fingerprint = 31 * fingerprint + cursor.getLong(1);
+            }
+        } finally {
+            cursor.close();
+        }
+        return fingerprint;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        getContext().getContentResolver().registerContentObserver(Contract.Quote.URI, true, observer);
+        if (matrix != null) {
+            deliverResult(matrix);
+        }
+        if (takeContentChanged() || matrix == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    public void deliverResult(CorrelationEngine.Matrix data) {
+        matrix = data;
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        getContext().getContentResolver().unregisterContentObserver(observer);
+        matrix = null;
+    }
+}
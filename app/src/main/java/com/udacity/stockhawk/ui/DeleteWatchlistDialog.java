@@ -0,0 +1,48 @@
+package com.udacity.stockhawk.ui;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.app.DialogFragment;
+import android.content.DialogInterface;
+import android.os.Bundle;
+
+import com.udacity.stockhawk.R;
+
+
+/**
+ * Confirms deleting a watchlist, which also removes the stocks that are on no other list.
+ */
+public class DeleteWatchlistDialog extends DialogFragment {
+
+    private static final String ARG_WATCHLIST_ID = "watchlistId";
+    private static final String ARG_NAME = "name";
+
+    static DeleteWatchlistDialog newInstance(long watchlistId, String name) {
+        Bundle args = new Bundle();
+        args.putLong(ARG_WATCHLIST_ID, watchlistId);
+        args.putString(ARG_NAME, name);
+        DeleteWatchlistDialog dialog = new DeleteWatchlistDialog();
+        dialog.setArguments(args);
+        return dialog;
+    }
+
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        final long watchlistId = getArguments().getLong(ARG_WATCHLIST_ID);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+        builder.setMessage(getString(R.string.dialog_delete_watchlist_FORMAT, getArguments().getString(ARG_NAME)));
+        builder.setPositiveButton(getString(R.string.dialog_delete),
+                new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int id) {
+                        Activity parent = getActivity();
+                        if (parent instanceof MainActivity) {
+                            ((MainActivity) parent).deleteWatchlist(watchlistId);
+                        }
+                    }
+                });
+        builder.setNegativeButton(getString(R.string.dialog_cancel), null);
+        return builder.create();
+    }
+}
@@ -0,0 +1,99 @@
+package com.udacity.stockhawk.ui;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import com.udacity.stockhawk.data.Contract;
+import com.udacity.stockhawk.data.HistoryCodec;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads and decodes one symbol's history off the main thread. Decoded series are cached per
+ * symbol together with the history end date they were loaded for, so a refreshed history is
+ * reloaded while an unchanged one is reused.
+ */
+class HistoryLoader {
+
+    private static final int CACHE_SIZE = 16;
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final ContentResolver contentResolver;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, CachedHistory> cache = new LruCache<>(CACHE_SIZE);
+    private final Set<String> inFlight = new HashSet<>();
+
+    interface Callback {
+        void onHistoryLoaded(String symbol);
+    }
+
+    HistoryLoader(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * @return the cached history, or null after starting a load that reports back to callback
+     */
+    HistoryCodec.History get(final String symbol, final long historyEnd, final Callback callback) {
+        CachedHistory cached = cache.get(symbol);
+        if (cached != null && cached.historyEnd == historyEnd) {
+            return cached.history;
+        }
+        if (!inFlight.add(symbol)) {
+            return null;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final HistoryCodec.History history = query(symbol);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        inFlight.remove(symbol);
+                        if (history != null) {
+                            cache.put(symbol, new CachedHistory(historyEnd, history));
+                            callback.onHistoryLoaded(symbol);
+                        }
+                    }
+                });
+            }
+        });
+        return null;
+    }
+
+    private HistoryCodec.History query(String symbol) {
+        Cursor cursor = contentResolver.query(Contract.Quote.makeUriForStock(symbol),
+                new String[]{Contract.Quote.COLUMN_HISTORY}, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return HistoryCodec.decode(cursor.getBlob(0));
+        } catch (IllegalArgumentException exception) {
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static final class CachedHistory {
+
+        final long historyEnd;
+        final HistoryCodec.History history;
+
+        CachedHistory(long historyEnd, HistoryCodec.History history) {
+            this.historyEnd = historyEnd;
+            this.history = history;
+        }
+    }
+}
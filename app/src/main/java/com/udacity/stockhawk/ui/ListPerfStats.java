@@ -0,0 +1,215 @@
+package com.udacity.stockhawk.ui;
+
+import android.content.Context;
+import android.support.v7.widget.RecyclerView;
+import android.view.Choreographer;
+
+import com.udacity.stockhawk.BuildConfig;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import timber.log.Timber;
+
+/**
+ * Timing of the quote list: view inflation, binding, chart setup and frame durations while
+ * scrolling. Durations go into fixed-size histograms so recording never allocates; all methods
+ * are called on the main thread. Only debug builds record anything.
+ * <p>
+ * {@link #dump(Context)} logs the current numbers, appends them to {@value #FILE_NAME} together
+ * with the app version so they can be compared across builds, and starts over. The file is
+ * written on a background thread; once it reaches {@value #MAX_FILE_BYTES} bytes it is moved to
+ * {@value #OLD_FILE_NAME}, replacing the previous one.
+ */
+final class ListPerfStats {
+
+    static final boolean ENABLED = BuildConfig.DEBUG;
+
+    private static final String FILE_NAME = "list_perf.csv";
+    private static final String OLD_FILE_NAME = "list_perf.old.csv";
+    private static final long MAX_FILE_BYTES = 256 * 1024;
+    private static final String HEADER =
+            "timestamp,version,histogram,count,p50_us,p90_us,p99_us,max_us,dropped_frames\n";
+    private static final long FRAME_INTERVAL_NANOS = 16666667L;
+
+    static final Histogram INFLATE = new Histogram("inflate");
+    static final Histogram BIND = new Histogram("bind");
+    static final Histogram BIND_EXPANDED = new Histogram("bind_expanded");
+    static final Histogram CHART_SETUP = new Histogram("chart_setup");
+    static final Histogram FRAME = new Histogram("frame");
+
+    private static final Histogram[] ALL = {INFLATE, BIND, BIND_EXPANDED, CHART_SETUP, FRAME};
+
+    private static int droppedFrames;
+
+    private static final Executor executor = Executors.newSingleThreadExecutor();
+
+    private ListPerfStats() {
+    }
+
+    static void dump(Context context) {
+        if (!ENABLED) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        final StringBuilder lines = new StringBuilder();
+        for (Histogram histogram : ALL) {
+            if (histogram.count == 0) {
+                continue;
+            }
+            Timber.i("List perf %s: n=%d p50=%dus p90=%dus p99=%dus max=%dus",
+                    histogram.name, histogram.count, histogram.percentileMicros(0.5),
+                    histogram.percentileMicros(0.9), histogram.percentileMicros(0.99),
+                    histogram.maxNanos / 1000);
+            lines.append(String.format(Locale.US, "%d,%s,%s,%d,%d,%d,%d,%d,%d\n",
+                    now, BuildConfig.VERSION_NAME, histogram.name, histogram.count,
+                    histogram.percentileMicros(0.5), histogram.percentileMicros(0.9),
+                    histogram.percentileMicros(0.99), histogram.maxNanos / 1000,
+                    histogram == FRAME ? droppedFrames : 0));
+        }
+        if (FRAME.count > 0) {
+            Timber.i("List perf: %d dropped frames over %d frames", droppedFrames, FRAME.count);
+        }
+
+        for (Histogram histogram : ALL) {
+            histogram.reset();
+        }
+        droppedFrames = 0;
+
+        if (lines.length() == 0) {
+            return;
+        }
+        final File directory = context.getApplicationContext().getFilesDir();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                append(directory, lines.toString());
+            }
+        });
+    }
+
+    private static void append(File directory, String lines) {
+        File file = new File(directory, FILE_NAME);
+        if (file.length() >= MAX_FILE_BYTES && !file.renameTo(new File(directory, OLD_FILE_NAME))) {
+            Timber.w("Could not rotate %s", file);
+        }
+        boolean newFile = !file.exists();
+        Writer writer = null;
+        try {
+            writer = new FileWriter(file, true);
+            if (newFile) {
+                writer.write(HEADER);
+            }
+            writer.write(lines);
+        } catch (IOException exception) {
+            Timber.e(exception, "Error writing list perf stats");
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts in power-of-two microsecond buckets: bucket i holds durations below 2^i us, and the
+     * last bucket everything from about a second up.
+     */
+    static final class Histogram {
+
+        private static final int BUCKETS = 21;
+
+        final String name;
+        private final int[] buckets = new int[BUCKETS];
+        private int count;
+        private long maxNanos;
+
+        Histogram(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos) {
+            if (!ENABLED) {
+                return;
+            }
+            long micros = Math.max(0, nanos / 1000);
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+            buckets[bucket]++;
+            count++;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+            }
+        }
+
+        void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the given fraction of samples
+         */
+        long percentileMicros(double fraction) {
+            long target = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= target && seen > 0) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKETS - 1);
+        }
+
+        void reset() {
+            Arrays.fill(buckets, 0);
+            count = 0;
+            maxNanos = 0;
+        }
+    }
+
+    /**
+     * Records frame durations while the list is being dragged or flung.
+     */
+    static final class FrameMonitor extends RecyclerView.OnScrollListener
+            implements Choreographer.FrameCallback {
+
+        private long lastFrameNanos;
+        private boolean running;
+
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            if (newState != RecyclerView.SCROLL_STATE_IDLE && !running) {
+                running = true;
+                lastFrameNanos = 0;
+                Choreographer.getInstance().postFrameCallback(this);
+            } else if (newState == RecyclerView.SCROLL_STATE_IDLE && running) {
+                running = false;
+                Choreographer.getInstance().removeFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!running) {
+                return;
+            }
+            if (lastFrameNanos != 0) {
+                long duration = frameTimeNanos - lastFrameNanos;
+                FRAME.record(duration);
+                if (duration > FRAME_INTERVAL_NANOS) {
+                    droppedFrames += (int) ((duration - FRAME_INTERVAL_NANOS / 2) / FRAME_INTERVAL_NANOS);
+                }
+            }
+            lastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.udacity.stockhawk.ui;
+
+import android.content.Context;
+import android.util.AtomicFile;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import timber.log.Timber;
+
+/**
+ * Last rendered state of the quote list, kept in a memory-mapped file so that the first frame
+ * can show it before the database has been opened. Rows are decoded lazily as they are bound.
+ * The file is written on a background thread.
+ */
+final class ListSnapshot {
+
+    private static final int VERSION = 1;
+    private static final String FILE_NAME = "list_snapshot.bin";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte FLAG_POSITIVE = 1;
+    private static final byte FLAG_INVALID = 2;
+
+    static final ListSnapshot EMPTY = new ListSnapshot(ByteBuffer.allocate(0), new int[0]);
+
+    private static final Executor executor = Executors.newSingleThreadExecutor();
+
+    private final ByteBuffer buffer;
+    private final int[] rowOffsets;
+
+    private ListSnapshot(ByteBuffer buffer, int[] rowOffsets) {
+        this.buffer = buffer;
+        this.rowOffsets = rowOffsets;
+    }
+
+    int size() {
+        return rowOffsets.length;
+    }
+
+    Row getRow(int position) {
+        ByteBuffer row = buffer.duplicate();
+        row.position(rowOffsets[position]);
+        byte flags = row.get();
+        return new Row(readString(row), readString(row), readString(row),
+                (flags & FLAG_POSITIVE) != 0, (flags & FLAG_INVALID) != 0);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    static ListSnapshot read(Context context) {
+        File file = getFile(context);
+        if (!file.exists()) {
+            return EMPTY;
+        }
+
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.get() != VERSION) {
+                return EMPTY;
+            }
+            int[] rowOffsets = new int[buffer.getInt()];
+            for (int i = 0; i < rowOffsets.length; i++) {
+                rowOffsets[i] = buffer.position();
+                buffer.get();
+                for (int field = 0; field < 3; field++) {
+                    int length = buffer.getShort() & 0xFFFF;
+                    buffer.position(buffer.position() + length);
+                }
+            }
+            return new ListSnapshot(buffer, rowOffsets);
+        } catch (IOException | RuntimeException exception) {
+            Timber.d("No usable list snapshot: %s", exception.getMessage());
+            return EMPTY;
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    static void write(Context context, final List<Row> rows) {
+        final File file = getFile(context);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(file, rows);
+            }
+        });
+    }
+
+    private static void write(File target, List<Row> rows) {
+        AtomicFile file = new AtomicFile(target);
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeByte(VERSION);
+            out.writeInt(rows.size());
+            for (Row row : rows) {
+                byte flags = 0;
+                if (row.positive) {
+                    flags |= FLAG_POSITIVE;
+                }
+                if (row.invalid) {
+                    flags |= FLAG_INVALID;
+                }
+                out.writeByte(flags);
+                writeString(out, row.symbol);
+                writeString(out, row.price);
+                writeString(out, row.change);
+            }
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException exception) {
+            Timber.e(exception, "Error writing list snapshot");
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    static final class Row {
+
+        final String symbol;
+        final String price;
+        final String change;
+        final boolean positive;
+        final boolean invalid;
+
+        Row(String symbol, String price, String change, boolean positive, boolean invalid) {
+            this.symbol = symbol;
+            this.price = price;
+            this.change = change;
+            this.positive = positive;
+            this.invalid = invalid;
+        }
+    }
+}
@@ -4,19 +4,25 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.support.annotation.Nullable;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.view.ActionMode;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.helper.ItemTouchHelper;
+import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -26,22 +32,33 @@ import android.widget.Toast;
 import com.udacity.stockhawk.R;
 import com.udacity.stockhawk.data.Contract;
 import com.udacity.stockhawk.data.PrefUtils;
+import com.udacity.stockhawk.sync.CsvTransferService;
+import com.udacity.stockhawk.sync.LiveQuotePoller;
 import com.udacity.stockhawk.sync.QuoteSyncJob;
+import com.udacity.stockhawk.sync.WatchlistEditService;
 
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
 import timber.log.Timber;
 
-import static com.udacity.stockhawk.sync.QuoteSyncJob.ACTION_DATA_UPDATED;
-
 public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>,
         SwipeRefreshLayout.OnRefreshListener,
+        SharedPreferences.OnSharedPreferenceChangeListener,
         StockAdapter.StockAdapterOnClickHandler {
 
     private static final int STOCK_LOADER = 0;
+    private static final int WATCHLIST_LOADER = 1;
+    private static final int REQUEST_EXPORT_CSV = 1;
+    private static final int REQUEST_IMPORT_CSV = 2;
+    private static final String MIME_TYPE_CSV = "text/csv";
+    private static final String ARG_SEARCH_QUERY = "searchQuery";
     @SuppressWarnings("WeakerAccess")
     @BindView(R.id.recycler_view)
     RecyclerView stockRecyclerView;
@@ -52,9 +69,21 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     @BindView(R.id.error)
     TextView error;
     private StockAdapter adapter;
+    private LiveQuotePoller liveQuotePoller;
     boolean useDetailActivity;
     private Intent mIntent;
     private String clickedSymbol;
+    private String searchQuery;
+    // The list the stock loader shows; follows the current-watchlist preference
+    private long shownWatchlistId;
+    // Ids and names of all lists, for the menu
+    private Cursor watchlists;
+    // The list changed since the snapshot file was last written
+    private boolean snapshotStale;
+    private ActionMode selectionMode;
+    // Removed from the list but not yet from the watchlist, until the undo snackbar goes away
+    private final Set<String> pendingRemovals = new HashSet<>();
+    private Snackbar removalSnackbar;
     private static final String KEY_SYMBOL = "symbolSavedInstance";
 
     private BroadcastReceiver mErrorAddingStocksReceiver;
@@ -63,7 +92,11 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     @Override
     public void onClick(String symbol) {
         Timber.d("Symbol clicked: %s", symbol);
-        if (useDetailActivity) {
+        if (selectionMode != null) {
+            if (isRemovable(symbol)) {
+                toggleSelection(symbol);
+            }
+        } else if (useDetailActivity) {
             Intent intent = DetailActivity.buildIntent(this, symbol);
             startActivity(intent);
         } else {
@@ -72,6 +105,104 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         }
     }
 
+    @Override
+    public void onLongClick(String symbol) {
+        if (!isRemovable(symbol)) {
+            return;
+        }
+        if (selectionMode == null) {
+            selectionMode = startSupportActionMode(selectionModeCallback);
+        }
+        toggleSelection(symbol);
+    }
+
+    /**
+     * The watchlist index is derived from the other quotes; it is not a member of any list.
+     */
+    private static boolean isRemovable(String symbol) {
+        return !Contract.Quote.INDEX_SYMBOL.equals(symbol);
+    }
+
+    private void toggleSelection(String symbol) {
+        adapter.toggleSelection(symbol);
+        int count = adapter.getSelectedSymbols().size();
+        if (count == 0) {
+            selectionMode.finish();
+        } else {
+            selectionMode.setTitle(getString(R.string.selection_count_FORMAT, count));
+        }
+    }
+
+    private final ActionMode.Callback selectionModeCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.main_activity_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            if (item.getItemId() == R.id.action_remove) {
+                removeStocks(adapter.getSelectedSymbols());
+                mode.finish();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            adapter.clearSelection();
+            selectionMode = null;
+        }
+    };
+
+    /**
+     * Hides the rows right away and leaves a short window to undo before the symbols are removed
+     * in the background. Removals made while the window is open are committed together.
+     */
+    private void removeStocks(Collection<String> symbols) {
+        if (symbols.isEmpty()) {
+            return;
+        }
+        pendingRemovals.addAll(symbols);
+        adapter.hideSymbols(symbols);
+
+        String message = getResources().getQuantityString(
+                R.plurals.snackbar_stocks_removed, pendingRemovals.size(), pendingRemovals.size());
+        removalSnackbar = Snackbar.make(findViewById(R.id.swipe_refresh), message, Snackbar.LENGTH_LONG)
+                .setAction(R.string.undo, new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        adapter.showSymbols(pendingRemovals);
+                        pendingRemovals.clear();
+                    }
+                })
+                .setActionTextColor(getResources().getColor(R.color.colorAccent))
+                .addCallback(new Snackbar.Callback() {
+                    @Override
+                    public void onDismissed(Snackbar snackbar, int event) {
+                        // A newer snackbar has taken over the pending removals
+                        if (event != DISMISS_EVENT_CONSECUTIVE && event != DISMISS_EVENT_ACTION) {
+                            commitRemovals();
+                        }
+                    }
+                });
+        removalSnackbar.show();
+    }
+
+    private void commitRemovals() {
+        if (!pendingRemovals.isEmpty()) {
+            WatchlistEditService.startRemove(this, shownWatchlistId, pendingRemovals);
+            pendingRemovals.clear();
+        }
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -87,16 +218,23 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
 
         useDetailActivity = getResources().getBoolean(R.bool.use_detail_activity);
 
+        liveQuotePoller = new LiveQuotePoller(this);
         adapter = new StockAdapter(this, this);
+        adapter.setSnapshot(ListSnapshot.read(this));
         stockRecyclerView.setAdapter(adapter);
         stockRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        if (ListPerfStats.ENABLED) {
+            stockRecyclerView.addOnScrollListener(new ListPerfStats.FrameMonitor());
+        }
 
         swipeRefreshLayout.setOnRefreshListener(this);
         swipeRefreshLayout.setRefreshing(true);
         onRefresh();
 
         QuoteSyncJob.initialize(this);
+        shownWatchlistId = PrefUtils.getCurrentWatchlist(this);
         getSupportLoaderManager().initLoader(STOCK_LOADER, null, this);
+        getSupportLoaderManager().initLoader(WATCHLIST_LOADER, null, this);
 
         new ItemTouchHelper(new ItemTouchHelper.SimpleCallback(0, ItemTouchHelper.RIGHT) {
             @Override
@@ -104,14 +242,19 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                 return false;
             }
 
+            @Override
+            public int getSwipeDirs(RecyclerView recyclerView, RecyclerView.ViewHolder viewHolder) {
+                int position = viewHolder.getAdapterPosition();
+                if (position == RecyclerView.NO_POSITION || !isRemovable(adapter.getSymbolAtPosition(position))) {
+                    return 0;
+                }
+                return super.getSwipeDirs(recyclerView, viewHolder);
+            }
+
             @Override
             public void onSwiped(RecyclerView.ViewHolder viewHolder, int direction) {
                 String symbol = adapter.getSymbolAtPosition(viewHolder.getAdapterPosition());
-                PrefUtils.removeStock(MainActivity.this, symbol);
-                getContentResolver().delete(Contract.Quote.makeUriForStock(symbol), null, null);
-                QuoteSyncJob.setNetworkStatus(MainActivity.this, QuoteSyncJob.SERVER_INVALID);
-                Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED);
-                sendBroadcast(dataUpdatedIntent);
+                removeStocks(Collections.singleton(symbol));
             }
         }).attachToRecyclerView(stockRecyclerView);
 
@@ -122,6 +265,9 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                     String symbol = intent.getStringExtra(QuoteSyncJob.EXTRA_INVALID_STOCK_NAME);
                     Toast.makeText(MainActivity.this, getString(R.string.toast_invalid_stock_name_FORMAT, symbol), Toast.LENGTH_LONG)
                             .show();
+                } else if (intent.getAction().equals(QuoteSyncJob.ACTION_DATA_UPDATED)) {
+                    // A sync that found every quote fresh writes nothing, so the loader stays quiet
+                    swipeRefreshLayout.setRefreshing(false);
                 }
             }
         };
@@ -145,12 +291,38 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     protected void onStart() {
         super.onStart();
         mErrorAddingStocksIntentFilter.addAction(getString(R.string.broadcast_invalid_stock));
+        mErrorAddingStocksIntentFilter.addAction(QuoteSyncJob.ACTION_DATA_UPDATED);
         registerReceiver(mErrorAddingStocksReceiver, mErrorAddingStocksIntentFilter);
+        PreferenceManager.getDefaultSharedPreferences(this).registerOnSharedPreferenceChangeListener(this);
+        // The current list may have been created or deleted while the activity was stopped
+        showWatchlist(PrefUtils.getCurrentWatchlist(this));
+        liveQuotePoller.start();
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (getString(R.string.pref_current_watchlist_key).equals(key)) {
+            showWatchlist(PrefUtils.getCurrentWatchlist(this));
+        }
     }
 
     @Override
     protected void onStop() {
+        // The undo window ends with the activity leaving the screen
+        commitRemovals();
+        if (removalSnackbar != null) {
+            removalSnackbar.dismiss();
+            removalSnackbar = null;
+        }
+        liveQuotePoller.stop();
         unregisterReceiver(mErrorAddingStocksReceiver);
+        PreferenceManager.getDefaultSharedPreferences(this).unregisterOnSharedPreferenceChangeListener(this);
+        // Written once per visit instead of on every sync chunk and live poll
+        if (snapshotStale && !isSearching()) {
+            ListSnapshot.write(this, adapter.buildSnapshotRows());
+            snapshotStale = false;
+        }
+        ListPerfStats.dump(this);
         super.onStop();
     }
 
@@ -191,25 +363,147 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                 Toast.makeText(this, message, Toast.LENGTH_LONG).show();
             }
 
-            PrefUtils.addStock(this, symbol);
-            QuoteSyncJob.syncImmediately(this);
+            WatchlistEditService.startAdd(this, shownWatchlistId, symbol);
+        }
+    }
+
+    private boolean isSearching() {
+        return !TextUtils.isEmpty(searchQuery);
+    }
+
+    private void search(String query) {
+        searchQuery = query == null ? null : query.trim();
+        restartListLoader();
+    }
+
+    private void restartListLoader() {
+        Bundle args = new Bundle();
+        args.putString(ARG_SEARCH_QUERY, searchQuery);
+        getSupportLoaderManager().restartLoader(STOCK_LOADER, args, this);
+    }
+
+    /**
+     * The service makes the new list current, which switches to it.
+     */
+    void addWatchlist(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return;
+        }
+        if (findWatchlist(name.trim()) != -1) {
+            Toast.makeText(this, getString(R.string.toast_watchlist_exists, name.trim()), Toast.LENGTH_LONG).show();
+            return;
         }
+        WatchlistEditService.startCreate(this, name.trim());
+    }
+
+    void renameWatchlist(long watchlistId, String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return;
+        }
+        long existing = findWatchlist(name.trim());
+        if (existing == watchlistId) {
+            return;
+        }
+        if (existing != -1) {
+            Toast.makeText(this, getString(R.string.toast_watchlist_exists, name.trim()), Toast.LENGTH_LONG).show();
+            return;
+        }
+        WatchlistEditService.startRename(this, watchlistId, name.trim());
+    }
+
+    /**
+     * If it is the current list, the service makes the default list current, which switches to it.
+     */
+    void deleteWatchlist(long watchlistId) {
+        WatchlistEditService.startDelete(this, watchlistId);
+    }
+
+    /**
+     * @return the id of the loaded list with the name, or -1
+     */
+    private long findWatchlist(String name) {
+        if (watchlists == null) {
+            return -1;
+        }
+        for (watchlists.moveToPosition(-1); watchlists.moveToNext(); ) {
+            if (name.equals(watchlists.getString(1))) {
+                return watchlists.getLong(0);
+            }
+        }
+        return -1;
+    }
+
+    @Nullable
+    private String getWatchlistName(long watchlistId) {
+        if (watchlists == null) {
+            return null;
+        }
+        for (watchlists.moveToPosition(-1); watchlists.moveToNext(); ) {
+            if (watchlists.getLong(0) == watchlistId) {
+                return watchlists.getString(1);
+            }
+        }
+        return null;
+    }
+
+    private void switchWatchlist(long watchlistId) {
+        PrefUtils.setCurrentWatchlist(this, watchlistId);
+        showWatchlist(watchlistId);
+    }
+
+    /**
+     * The quotes of every list are already stored, so switching only reloads the list view.
+     */
+    private void showWatchlist(long watchlistId) {
+        if (watchlistId == shownWatchlistId) {
+            return;
+        }
+        // Pending removals belong to the list they were made in
+        commitRemovals();
+        if (selectionMode != null) {
+            selectionMode.finish();
+        }
+        shownWatchlistId = watchlistId;
+        adapter.clearExpandedIndices();
+        restartListLoader();
+        supportInvalidateOptionsMenu();
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+        if (id == WATCHLIST_LOADER) {
+            return new CursorLoader(this, Contract.Watchlist.URI,
+                    new String[]{Contract.Watchlist._ID, Contract.Watchlist.COLUMN_NAME},
+                    null, null, Contract.Watchlist._ID);
+        }
+        String query = args == null ? null : args.getString(ARG_SEARCH_QUERY);
+        if (!TextUtils.isEmpty(query)) {
+            // Search results come ranked from the provider
+            return new CursorLoader(this,
+                    Contract.Quote.makeUriForSearch(query),
+                    Contract.Quote.LIST_COLUMNS.toArray(new String[]{}),
+                    null, null, null);
+        }
         return new CursorLoader(this,
-                Contract.Quote.URI,
-                Contract.Quote.QUOTE_COLUMNS.toArray(new String[]{}),
+                Contract.Watchlist.makeUriForQuotes(shownWatchlistId),
+                Contract.Quote.LIST_COLUMNS.toArray(new String[]{}),
                 null, null, Contract.Quote.COLUMN_SYMBOL);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if (loader.getId() == WATCHLIST_LOADER) {
+            watchlists = data;
+            supportInvalidateOptionsMenu();
+            return;
+        }
         swipeRefreshLayout.setRefreshing(false);
 
         if (data.getCount() != 0) {
             error.setVisibility(View.GONE);
+        } else if (isSearching()) {
+            error.setText(getString(R.string.error_no_search_results, searchQuery));
+            error.setVisibility(View.VISIBLE);
         } else {
             String errorMessage;
             int networkStatus = PrefUtils.getNetworkStatus(this);
@@ -231,6 +525,9 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             error.setVisibility(View.VISIBLE);
         }
         adapter.setCursor(data);
+        if (!isSearching()) {
+            snapshotStale = true;
+        }
         long currentTime = Calendar.getInstance().getTimeInMillis();
         if (currentTime - adapter.mLowestDate > 6.048e+8){
             Timber.d("current: " + Long.toString(currentTime) + ", adapter lowest: " + Long.toString(adapter.mLowestDate));
@@ -251,6 +548,10 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        if (loader.getId() == WATCHLIST_LOADER) {
+            watchlists = null;
+            return;
+        }
         swipeRefreshLayout.setRefreshing(false);
         adapter.setCursor(null);
     }
@@ -273,22 +574,134 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             getMenuInflater().inflate(R.menu.main_activity_settings, menu);
             MenuItem item = menu.findItem(R.id.action_change_units);
             setDisplayModeMenuItemIcon(item);
-            return true;
-        } else {
-            return false;
         }
+        getMenuInflater().inflate(R.menu.main_activity_watchlists, menu);
+        getMenuInflater().inflate(R.menu.main_activity_analysis, menu);
+        getMenuInflater().inflate(R.menu.main_activity_transfer, menu);
+
+        getMenuInflater().inflate(R.menu.main_activity_search, menu);
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText);
+                return true;
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem watchlistsItem = menu.findItem(R.id.action_watchlists);
+        if (watchlistsItem != null) {
+            populateWatchlists(watchlistsItem.getSubMenu());
+        }
+        MenuItem delete = menu.findItem(R.id.action_delete_watchlist);
+        if (delete != null) {
+            delete.setEnabled(shownWatchlistId != Contract.Watchlist.DEFAULT_ID);
+        }
+        MenuItem capWeighted = menu.findItem(R.id.action_index_cap_weighted);
+        if (capWeighted != null) {
+            capWeighted.setChecked(getString(R.string.pref_index_weighting_cap)
+                    .equals(PrefUtils.getIndexWeighting(this)));
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    /**
+     * Lists the loaded watchlists by their ids and shows the current one's name as the subtitle.
+     */
+    private void populateWatchlists(Menu menu) {
+        menu.removeGroup(R.id.group_watchlists);
+        if (watchlists == null) {
+            return;
+        }
+        for (watchlists.moveToPosition(-1); watchlists.moveToNext(); ) {
+            long id = watchlists.getLong(0);
+            String name = watchlists.getString(1);
+            menu.add(R.id.group_watchlists, (int) id, watchlists.getPosition(), name)
+                    .setChecked(id == shownWatchlistId);
+            if (id == shownWatchlistId && getSupportActionBar() != null) {
+                getSupportActionBar().setSubtitle(name);
+            }
+        }
+        menu.setGroupCheckable(R.id.group_watchlists, true, true);
     }
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
 
+        if (item.getGroupId() == R.id.group_watchlists) {
+            switchWatchlist(id);
+            return true;
+        } else if (id == R.id.action_new_watchlist) {
+            new AddWatchlistDialog().show(getFragmentManager(), "WatchlistDialogFragment");
+            return true;
+        } else if (id == R.id.action_rename_watchlist) {
+            AddWatchlistDialog.forRename(shownWatchlistId, getWatchlistName(shownWatchlistId))
+                    .show(getFragmentManager(), "WatchlistDialogFragment");
+            return true;
+        } else if (id == R.id.action_delete_watchlist) {
+            DeleteWatchlistDialog.newInstance(shownWatchlistId, getWatchlistName(shownWatchlistId))
+                    .show(getFragmentManager(), "DeleteWatchlistDialogFragment");
+            return true;
+        }
+
         if (id == R.id.action_change_units) {
             PrefUtils.toggleDisplayMode(this);
             setDisplayModeMenuItemIcon(item);
             adapter.notifyDataSetChanged();
+            if (!isSearching()) {
+                snapshotStale = true;
+            }
+            return true;
+        } else if (id == R.id.action_correlation) {
+            startActivity(new Intent(this, CorrelationActivity.class));
+            return true;
+        } else if (id == R.id.action_index_cap_weighted) {
+            item.setChecked(!item.isChecked());
+            WatchlistEditService.startSetIndexWeighting(this, getString(item.isChecked()
+                    ? R.string.pref_index_weighting_cap
+                    : R.string.pref_index_weighting_equal));
+            return true;
+        } else if (id == R.id.action_export_csv) {
+            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType(MIME_TYPE_CSV);
+            intent.putExtra(Intent.EXTRA_TITLE, getString(R.string.export_file_name));
+            startActivityForResult(intent, REQUEST_EXPORT_CSV);
+            return true;
+        } else if (id == R.id.action_import_csv) {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("*/*");
+            startActivityForResult(intent, REQUEST_IMPORT_CSV);
             return true;
         }
         return super.onOptionsItemSelected(item);
     }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+        if (requestCode == REQUEST_EXPORT_CSV) {
+            CsvTransferService.startExport(this, data.getData());
+        } else if (requestCode == REQUEST_IMPORT_CSV) {
+            CsvTransferService.startImport(this, data.getData());
+        } else {
+            super.onActivityResult(requestCode, resultCode, data);
+        }
+    }
 }
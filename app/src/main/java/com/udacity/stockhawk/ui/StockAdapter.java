@@ -21,7 +21,7 @@ import com.github.mikephil.charting.data.LineData;
 import com.github.mikephil.charting.data.LineDataSet;
 import com.udacity.stockhawk.R;
 import com.udacity.stockhawk.data.Contract;
-import com.udacity.stockhawk.data.HistoryData;
+import com.udacity.stockhawk.data.HistoryCodec;
 import com.udacity.stockhawk.data.PrefUtils;
 
 import java.lang.annotation.Retention;
@@ -29,35 +29,47 @@ import java.lang.annotation.RetentionPolicy;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import timber.log.Timber;
 
 import static com.udacity.stockhawk.R.id.chart;
-import static com.udacity.stockhawk.data.HistoryData.separateHistory;
 import static com.udacity.stockhawk.ui.DetailActivity.INDEX_HISTORY;
 import static yahoofinance.quotes.QuotesProperty.Symbol;
 
-class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHolder> {
+class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHolder>
+        implements HistoryLoader.Callback {
 
     private final Context context;
     private final DecimalFormat dollarFormatWithPlus;
     private final DecimalFormat dollarFormat;
     private final DecimalFormat percentageFormat;
     private Cursor cursor;
+    private ListSnapshot snapshot = ListSnapshot.EMPTY;
     private final StockAdapterOnClickHandler clickHandler;
+    private final HistoryLoader historyLoader;
     private int VIEW_TYPE_NORMAL = 50;
     private int VIEW_TYPE_EXPANDED = 51;
     public ArrayList<Integer> mExpandedIndices;
     public long mLowestDate;
+    private final Set<String> selectedSymbols = new HashSet<>();
+    // Rows waiting for their removal to be committed; they stay in the cursor until it reloads
+    private final Set<String> hiddenSymbols = new HashSet<>();
+    // Cursor position of each visible row, or null when no row is hidden
+    private int[] visibleRows;
 
 
     StockAdapter(Context context, StockAdapterOnClickHandler clickHandler) {
         this.context = context;
         this.clickHandler = clickHandler;
+        historyLoader = new HistoryLoader(context.getContentResolver());
 
         mLowestDate = Long.MAX_VALUE;
 
@@ -74,17 +86,99 @@ class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHolder> {
 
     void setCursor(Cursor cursor) {
         this.cursor = cursor;
+        updateVisibleRows();
         notifyDataSetChanged();
     }
 
     String getSymbolAtPosition(int position) {
 
-        cursor.moveToPosition(position);
+        if (cursor == null) {
+            return snapshot.getRow(position).symbol;
+        }
+        cursor.moveToPosition(cursorPosition(position));
         return cursor.getString(Contract.Quote.POSITION_SYMBOL);
     }
 
+    void hideSymbols(Collection<String> symbols) {
+        hiddenSymbols.addAll(symbols);
+        selectedSymbols.removeAll(symbols);
+        updateVisibleRows();
+        notifyDataSetChanged();
+    }
+
+    void showSymbols(Collection<String> symbols) {
+        hiddenSymbols.removeAll(symbols);
+        updateVisibleRows();
+        notifyDataSetChanged();
+    }
+
+    void toggleSelection(String symbol) {
+        if (!selectedSymbols.remove(symbol)) {
+            selectedSymbols.add(symbol);
+        }
+        int position = adapterPositionOf(symbol);
+        if (position != RecyclerView.NO_POSITION) {
+            notifyItemChanged(position);
+        }
+    }
+
+    Set<String> getSelectedSymbols() {
+        return new HashSet<>(selectedSymbols);
+    }
+
+    void clearSelection() {
+        if (!selectedSymbols.isEmpty()) {
+            selectedSymbols.clear();
+            notifyDataSetChanged();
+        }
+    }
+
+    private int cursorPosition(int position) {
+        return visibleRows == null ? position : visibleRows[position];
+    }
+
+    /**
+     * Also forgets hidden symbols that are gone from the cursor, so a symbol added again later
+     * shows up.
+     */
+    private void updateVisibleRows() {
+        visibleRows = null;
+        if (cursor == null || hiddenSymbols.isEmpty() || !cursor.moveToFirst()) {
+            return;
+        }
+        Set<String> present = new HashSet<>();
+        int[] rows = new int[cursor.getCount()];
+        int count = 0;
+        do {
+            String symbol = cursor.getString(Contract.Quote.POSITION_SYMBOL);
+            if (hiddenSymbols.contains(symbol)) {
+                present.add(symbol);
+            } else {
+                rows[count++] = cursor.getPosition();
+            }
+        } while (cursor.moveToNext());
+        hiddenSymbols.retainAll(present);
+        if (!hiddenSymbols.isEmpty()) {
+            visibleRows = Arrays.copyOf(rows, count);
+        }
+    }
+
+    private int adapterPositionOf(String symbol) {
+        if (cursor == null) {
+            return RecyclerView.NO_POSITION;
+        }
+        for (int position = 0; position < getItemCount(); position++) {
+            cursor.moveToPosition(cursorPosition(position));
+            if (cursor.getString(Contract.Quote.POSITION_SYMBOL).equals(symbol)) {
+                return position;
+            }
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
     @Override
     public StockViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        long start = System.nanoTime();
         View item;
         if (viewType==VIEW_TYPE_NORMAL) {
             item = LayoutInflater.from(context).inflate(R.layout.list_item_quote, parent, false);
@@ -92,15 +186,35 @@ class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHolder> {
             item = LayoutInflater.from(context).inflate(R.layout.list_item_quote_expanded, parent, false);
         }
 
-        return new StockViewHolder(item);
+        StockViewHolder holder = new StockViewHolder(item);
+        ListPerfStats.INFLATE.recordSince(start);
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(StockViewHolder holder, int position) {
+        long start = System.nanoTime();
+        bindQuote(holder, position);
+        if (holder.getItemViewType() == VIEW_TYPE_EXPANDED) {
+            ListPerfStats.BIND_EXPANDED.recordSince(start);
+        } else {
+            ListPerfStats.BIND.recordSince(start);
+        }
+    }
 
-        cursor.moveToPosition(position);
+    private void bindQuote(StockViewHolder holder, int position) {
 
-        if (cursor.getString(Contract.Quote.POSITION_HISTORY).equals(Contract.Quote.INVALID_STOCK_HISTORY_MARKER)){
+        if (cursor == null) {
+            holder.itemView.setActivated(false);
+            bindSnapshotRow(holder, snapshot.getRow(position));
+            return;
+        }
+
+        cursor.moveToPosition(cursorPosition(position));
+        holder.itemView.setActivated(selectedSymbols.contains(cursor.getString(Contract.Quote.POSITION_SYMBOL)));
+
+        long historyEnd = cursor.getLong(Contract.Quote.POSITION_HISTORY_END);
+        if (historyEnd == Contract.Quote.HISTORY_END_INVALID){
             holder.symbol.setText(context.getString(R.string.error_invalid_stock_name_FORMAT, cursor.getString(Contract.Quote.POSITION_SYMBOL)));
             holder.price.setVisibility(View.GONE);
             holder.change.setVisibility(View.GONE);
@@ -123,31 +237,22 @@ class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHolder> {
                 holder.change.setBackgroundResource(R.drawable.percent_change_pill_red);
             }
 
-            String change = dollarFormatWithPlus.format(rawAbsoluteChange);
-            String percentage = percentageFormat.format(percentageChange / 100);
+            holder.change.setText(formatChange(rawAbsoluteChange, percentageChange));
 
-            if (context.getResources().getBoolean(R.bool.use_detail_activity)) {
-                if (PrefUtils.getDisplayMode(context)
-                        .equals(context.getString(R.string.pref_display_mode_absolute_key))) {
-                    holder.change.setText(change);
-                } else {
-                    holder.change.setText(percentage);
-                }
-            } else {
-                holder.change.setText(context.getString(R.string.format_change_detail, change, percentage));
-            }
-
-            String history = cursor.getString(cursor.getColumnIndex(Contract.Quote.COLUMN_HISTORY));
-            Long lastDate = HistoryData.getLastHistoryDate(history);
-            if (mLowestDate > lastDate){
-                mLowestDate = lastDate;
+            if (mLowestDate > historyEnd){
+                mLowestDate = historyEnd;
             }
-            if (mExpandedIndices.contains(position)){
-                ArrayList<HistoryData> historyDatas = separateHistory(history);
-                List<Entry> entries = new ArrayList<Entry>();
-                for (int x = historyDatas.size()-1; x >=0; x--){
-                    HistoryData data = historyDatas.get(x);
-                    entries.add(new Entry(data.getDate(), data.getPrice()));
+            if (mExpandedIndices.contains(cursor.getPosition())){
+                HistoryCodec.History historyData = historyLoader.get(symbol, historyEnd, this);
+                if (historyData == null) {
+                    // Bound again once the history has been loaded
+                    holder.chart.setVisibility(View.INVISIBLE);
+                    return;
+                }
+                long chartStart = System.nanoTime();
+                List<Entry> entries = new ArrayList<Entry>(historyData.size());
+                for (int x = 0; x < historyData.size(); x++){
+                    entries.add(new Entry(historyData.dates[x], historyData.closes[x]));
                 }
                 LineDataSet dataSet = new LineDataSet(entries, symbol);
                 dataSet.setColor(context.getResources().getColor(R.color.colorPrimaryDark));
@@ -164,14 +269,85 @@ class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHolder> {
                 xAxis.setValueFormatter(new DateAxisFormatter());
                 holder.chart.invalidate();
                 holder.chart.setVisibility(View.VISIBLE);
+                ListPerfStats.CHART_SETUP.recordSince(chartStart);
             }
         }
 
     }
 
+    @Override
+    public void onHistoryLoaded(String symbol) {
+        int position = adapterPositionOf(symbol);
+        if (position != RecyclerView.NO_POSITION) {
+            notifyItemChanged(position);
+        }
+    }
+
+    private void bindSnapshotRow(StockViewHolder holder, ListSnapshot.Row row) {
+        if (row.invalid) {
+            holder.symbol.setText(context.getString(R.string.error_invalid_stock_name_FORMAT, row.symbol));
+            holder.price.setVisibility(View.GONE);
+            holder.change.setVisibility(View.GONE);
+        } else {
+            holder.price.setVisibility(View.VISIBLE);
+            holder.change.setVisibility(View.VISIBLE);
+            holder.symbol.setText(row.symbol);
+            holder.price.setText(row.price);
+            holder.change.setText(row.change);
+            holder.change.setBackgroundResource(row.positive
+                    ? R.drawable.percent_change_pill_green
+                    : R.drawable.percent_change_pill_red);
+        }
+    }
+
+    private String formatChange(float rawAbsoluteChange, float percentageChange) {
+        String change = dollarFormatWithPlus.format(rawAbsoluteChange);
+        String percentage = percentageFormat.format(percentageChange / 100);
+
+        if (context.getResources().getBoolean(R.bool.use_detail_activity)) {
+            if (PrefUtils.getDisplayMode(context)
+                    .equals(context.getString(R.string.pref_display_mode_absolute_key))) {
+                return change;
+            } else {
+                return percentage;
+            }
+        } else {
+            return context.getString(R.string.format_change_detail, change, percentage);
+        }
+    }
+
+    void setSnapshot(ListSnapshot snapshot) {
+        this.snapshot = snapshot;
+        if (cursor == null) {
+            notifyDataSetChanged();
+        }
+    }
+
+    List<ListSnapshot.Row> buildSnapshotRows() {
+        List<ListSnapshot.Row> rows = new ArrayList<>(getItemCount());
+        if (cursor == null || !cursor.moveToFirst()) {
+            return rows;
+        }
+        do {
+            String symbol = cursor.getString(Contract.Quote.POSITION_SYMBOL);
+            if (hiddenSymbols.contains(symbol)) {
+                continue;
+            }
+            float rawAbsoluteChange = cursor.getFloat(Contract.Quote.POSITION_ABSOLUTE_CHANGE);
+            boolean invalid = cursor.getLong(Contract.Quote.POSITION_HISTORY_END) == Contract.Quote.HISTORY_END_INVALID;
+            rows.add(new ListSnapshot.Row(
+                    symbol,
+                    dollarFormat.format(cursor.getFloat(Contract.Quote.POSITION_PRICE)),
+                    formatChange(rawAbsoluteChange, cursor.getFloat(Contract.Quote.POSITION_PERCENTAGE_CHANGE)),
+                    rawAbsoluteChange > 0,
+                    invalid));
+        } while (cursor.moveToNext());
+        return rows;
+    }
+
     @Override
     public int getItemViewType(int position) {
-        if (mExpandedIndices.contains(position))
+        if (cursor != null && mExpandedIndices.contains(cursorPosition(position)))
             return VIEW_TYPE_EXPANDED;
         return VIEW_TYPE_NORMAL;
     }
@@ -179,8 +355,12 @@ class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHolder> {
     @Override
     public int getItemCount() {
         int count = 0;
-        if (cursor != null) {
+        if (visibleRows != null) {
+            count = visibleRows.length;
+        } else if (cursor != null) {
             count = cursor.getCount();
+        } else {
+            count = snapshot.size();
         }
         return count;
     }
@@ -188,9 +368,12 @@ class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHolder> {
 
     interface StockAdapterOnClickHandler {
         void onClick(String symbol);
+
+        void onLongClick(String symbol);
     }
 
-    class StockViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+    class StockViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener,
+            View.OnLongClickListener {
 
         @BindView(R.id.symbol)
         TextView symbol;
@@ -208,24 +391,33 @@ class StockAdapter extends RecyclerView.Adapter<StockAdapter.StockViewHolder> {
             super(itemView);
             ButterKnife.bind(this, itemView);
             itemView.setOnClickListener(this);
+            itemView.setOnLongClickListener(this);
         }
 
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            cursor.moveToPosition(adapterPosition);
-            int symbolColumn = cursor.getColumnIndex(Contract.Quote.COLUMN_SYMBOL);
-            clickHandler.onClick(cursor.getString(symbolColumn));
+            clickHandler.onClick(getSymbolAtPosition(adapterPosition));
 
         }
 
+        @Override
+        public boolean onLongClick(View v) {
+            int adapterPosition = getAdapterPosition();
+            if (cursor == null || adapterPosition == RecyclerView.NO_POSITION) {
+                return false;
+            }
+            clickHandler.onLongClick(getSymbolAtPosition(adapterPosition));
+            return true;
+        }
+
 
     }
 
 
     public void toggleChartData(String symbol) {
 
-        if (cursor.getCount() > 0) {
+        if (cursor != null && cursor.getCount() > 0) {
             cursor.moveToFirst();
             Integer toToggle;
             do {
@@ -0,0 +1,109 @@
+package com.udacity.stockhawk.widget;
+
+import android.content.Context;
+import android.content.Intent;
+import android.widget.RemoteViews;
+import android.widget.RemoteViewsService;
+
+import com.udacity.stockhawk.R;
+import com.udacity.stockhawk.data.PrefUtils;
+import com.udacity.stockhawk.data.QuoteSnapshot;
+
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Feeds the widget list from {@link QuoteSnapshot}, so refreshing the widget never touches the
+ * database.
+ */
+public class AllStocksWidgetIntentService extends RemoteViewsService {
+
+    @Override
+    public RemoteViewsFactory onGetViewFactory(Intent intent) {
+        return new SnapshotViewsFactory(getApplicationContext());
+    }
+
+    private static class SnapshotViewsFactory implements RemoteViewsFactory {
+
+        private final Context context;
+        private final DecimalFormat dollarFormat;
+        private final DecimalFormat dollarFormatWithPlus;
+        private final DecimalFormat percentageFormat;
+        private QuoteSnapshot snapshot;
+        private boolean absoluteMode;
+
+        SnapshotViewsFactory(Context context) {
+            this.context = context;
+
+            dollarFormat = (DecimalFormat) NumberFormat.getCurrencyInstance(Locale.US);
+            dollarFormatWithPlus = (DecimalFormat) NumberFormat.getCurrencyInstance(Locale.US);
+            dollarFormatWithPlus.setPositivePrefix("+$");
+            percentageFormat = (DecimalFormat) NumberFormat.getPercentInstance(Locale.getDefault());
+            percentageFormat.setMaximumFractionDigits(2);
+            percentageFormat.setMinimumFractionDigits(2);
+            percentageFormat.setPositivePrefix("+");
+        }
+
+        @Override
+        public void onCreate() {
+        }
+
+        @Override
+        public void onDataSetChanged() {
+            snapshot = QuoteSnapshot.read(context);
+            absoluteMode = PrefUtils.getDisplayMode(context)
+                    .equals(context.getString(R.string.pref_display_mode_absolute_key));
+        }
+
+        @Override
+        public void onDestroy() {
+            snapshot = null;
+        }
+
+        @Override
+        public int getCount() {
+            return snapshot == null ? 0 : snapshot.size();
+        }
+
+        @Override
+        public RemoteViews getViewAt(int position) {
+            RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_list_item_quote);
+
+            float absoluteChange = snapshot.absoluteChanges[position];
+            views.setTextViewText(R.id.symbol, snapshot.symbols[position]);
+            views.setTextViewText(R.id.price, dollarFormat.format(snapshot.prices[position]));
+            if (absoluteMode) {
+                views.setTextViewText(R.id.change, dollarFormatWithPlus.format(absoluteChange));
+            } else {
+                views.setTextViewText(R.id.change,
+                        percentageFormat.format(snapshot.percentageChanges[position] / 100));
+            }
+            views.setInt(R.id.change, "setBackgroundResource", absoluteChange > 0
+                    ? R.drawable.percent_change_pill_green
+                    : R.drawable.percent_change_pill_red);
+
+            return views;
+        }
+
+        @Override
+        public RemoteViews getLoadingView() {
+            return null;
+        }
+
+        @Override
+        public int getViewTypeCount() {
+            return 1;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.udacity.stockhawk.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CorrelationEngineTest {
+
+    private static final float TOLERANCE = 1e-5f;
+    private static final long WEEK = 7L * 24 * 60 * 60 * 1000;
+    private static final float NaN = Float.NaN;
+
+    @Test
+    public void perfectlyCorrelated() {
+        float[] x = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        float[] y = new float[x.length];
+        float[] z = new float[x.length];
+        for (int i = 0; i < x.length; i++) {
+            y[i] = 2 * x[i] + 1;
+            z[i] = -x[i];
+        }
+
+        assertEquals(1f, CorrelationEngine.correlation(x, y), TOLERANCE);
+        assertEquals(-1f, CorrelationEngine.correlation(x, z), TOLERANCE);
+    }
+
+    @Test
+    public void knownCoefficient() {
+        float[] x = {1, 2, 3, 4, 5, 6, 7, 8};
+        float[] y = {2, 1, 4, 3, 6, 5, 8, 7};
+
+        assertEquals(19f / 21f, CorrelationEngine.correlation(x, y), TOLERANCE);
+        assertEquals(19f / 21f, CorrelationEngine.correlation(y, x), TOLERANCE);
+    }
+
+    /**
+     * The weeks missing in either series are left out, whatever the other series has there.
+     */
+    @Test
+    public void gapsAreSkippedPairwise() {
+        float[] x = {1, 2, NaN, 3, 4, 5, 6, 99, 7, 8};
+        float[] y = {2, 1, 50, 4, 3, 6, 5, NaN, 8, 7};
+
+        assertEquals(19f / 21f, CorrelationEngine.correlation(x, y), TOLERANCE);
+    }
+
+    @Test
+    public void tooLittleOverlapIsNaN() {
+        float[] x = {1, 2, 3, 4, 5, 6, 7, 8};
+        float[] y = {2, 1, 4, 3, 6, 5, 8, 7};
+        assertEquals(CorrelationEngine.MIN_OVERLAP, x.length);
+        assertFalse(Float.isNaN(CorrelationEngine.correlation(x, y)));
+
+        x[3] = NaN;
+        assertTrue(Float.isNaN(CorrelationEngine.correlation(x, y)));
+    }
+
+    @Test
+    public void constantSeriesIsNaN() {
+        float[] x = {1, 2, 3, 4, 5, 6, 7, 8, 9};
+        float[] flat = new float[x.length];
+        Arrays.fill(flat, 0.5f);
+
+        assertTrue(Float.isNaN(CorrelationEngine.correlation(x, flat)));
+    }
+
+    /**
+     * Squaring the closes doubles every log return and inverting them negates it, so both keep a
+     * perfect correlation with the original.
+     */
+    @Test
+    public void matrixOfAlignedHistories() {
+        int weeks = 20;
+        long[] dates = new long[weeks];
+        float[] closes = new float[weeks];
+        float[] squared = new float[weeks];
+        float[] inverted = new float[weeks];
+        for (int i = 0; i < weeks; i++) {
+            dates[i] = i * WEEK;
+            closes[i] = 10 + (i % 3) + i * 0.5f;
+            squared[i] = closes[i] * closes[i];
+            inverted[i] = 1 / closes[i];
+        }
+
+        CorrelationEngine.Matrix matrix = CorrelationEngine.compute(
+                new String[]{"A", "B", "C"},
+                new HistoryCodec.History[]{
+                        new HistoryCodec.History(dates, closes),
+                        new HistoryCodec.History(dates, squared),
+                        new HistoryCodec.History(dates, inverted)});
+
+        assertEquals(3, matrix.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1f, matrix.get(i, i), 0f);
+        }
+        assertEquals(1f, matrix.get(0, 1), TOLERANCE);
+        assertEquals(-1f, matrix.get(0, 2), TOLERANCE);
+        assertEquals(-1f, matrix.get(1, 2), TOLERANCE);
+        assertEquals(matrix.get(0, 2), matrix.get(2, 0), 0f);
+    }
+
+    @Test
+    public void disjointHistoriesAreNaN() {
+        int weeks = 12;
+        long[] early = new long[weeks];
+        long[] late = new long[weeks];
+        float[] closes = new float[weeks];
+        for (int i = 0; i < weeks; i++) {
+            early[i] = i * WEEK;
+            late[i] = (weeks + i) * WEEK;
+            closes[i] = 10 + (i % 4);
+        }
+
+        CorrelationEngine.Matrix matrix = CorrelationEngine.compute(
+                new String[]{"A", "B"},
+                new HistoryCodec.History[]{
+                        new HistoryCodec.History(early, closes),
+                        new HistoryCodec.History(late, closes)});
+
+        assertTrue(Float.isNaN(matrix.get(0, 1)));
+        assertTrue(Float.isNaN(matrix.get(1, 0)));
+    }
+
+    @Test
+    public void emptyInput() {
+        CorrelationEngine.Matrix matrix = CorrelationEngine.compute(new String[0], new HistoryCodec.History[0]);
+
+        assertEquals(0, matrix.size());
+    }
+}
@@ -0,0 +1,181 @@
+package com.udacity.stockhawk.data;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips through the bit stream. Dates and closes must come back exactly: closes are
+ * compared bit for bit, so NaN, negative zero and infinities are covered too.
+ */
+public class HistoryCodecTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final long START = 1262304000000L;
+
+    @Test
+    public void emptyHistory() {
+        byte[] encoded = HistoryCodec.encode(new long[0], new float[0], 0);
+
+        assertFalse(HistoryCodec.isInvalid(encoded));
+        assertEquals(0, HistoryCodec.decode(encoded).size());
+        assertEquals(0L, HistoryCodec.lastDate(encoded));
+        assertEquals(0L, HistoryCodec.decode(encoded).lastDate());
+    }
+
+    @Test
+    public void singlePoint() {
+        assertRoundTrip(new long[]{START}, new float[]{12.34f});
+    }
+
+    @Test
+    public void regularWeeklySeries() {
+        int count = 104;
+        long[] dates = new long[count];
+        float[] closes = new float[count];
+        for (int i = 0; i < count; i++) {
+            dates[i] = START + i * 7 * DAY;
+            closes[i] = 100 + i * 0.25f;
+        }
+        assertRoundTrip(dates, closes);
+    }
+
+    @Test
+    public void irregularDeltas() {
+        Random random = new Random(42);
+        int count = 500;
+        long[] dates = new long[count];
+        float[] closes = new float[count];
+        long date = START;
+        float close = 50;
+        for (int i = 0; i < count; i++) {
+            // Trading days with weekends, holidays and odd millisecond offsets
+            date += (1 + random.nextInt(4)) * DAY + random.nextInt(1000);
+            close = Math.max(0.01f, close * (1 + (float) random.nextGaussian() * 0.02f));
+            dates[i] = date;
+            closes[i] = close;
+        }
+        assertRoundTrip(dates, closes);
+    }
+
+    /**
+     * Each delta-of-delta sits on the edge of a bucket, on both sides and with both signs.
+     */
+    @Test
+    public void deltaOfDeltaBucketBoundaries() {
+        long[] deltaOfDeltas = {
+                0,
+                63, -64, 64, -65,
+                2047, -2048, 2048, -2049,
+                524287, -524288, 524288, -524289,
+                1L << 40, -(1L << 40)
+        };
+        // A large first delta keeps every later delta positive, so the dates stay ascending
+        long delta = 1L << 42;
+        long[] dates = new long[deltaOfDeltas.length + 2];
+        float[] closes = new float[dates.length];
+        dates[0] = START;
+        dates[1] = START + delta;
+        for (int i = 0; i < deltaOfDeltas.length; i++) {
+            delta += deltaOfDeltas[i];
+            dates[i + 2] = dates[i + 1] + delta;
+        }
+        for (int i = 0; i < closes.length; i++) {
+            closes[i] = i;
+        }
+        assertRoundTrip(dates, closes);
+    }
+
+    @Test
+    public void repeatedDates() {
+        assertRoundTrip(new long[]{START, START, START + DAY, START + DAY},
+                new float[]{1f, 2f, 3f, 4f});
+    }
+
+    @Test
+    public void outOfOrderDatesAreSorted() {
+        long[] dates = {START + 3 * DAY, START, START + 10 * DAY, START + DAY};
+        float[] closes = {4f, 1f, 10f, 2f};
+
+        HistoryCodec.History history = HistoryCodec.decode(HistoryCodec.encode(dates, closes, dates.length));
+
+        assertArrayEquals(new long[]{START, START + DAY, START + 3 * DAY, START + 10 * DAY}, history.dates);
+        assertArrayEquals(new float[]{1f, 2f, 4f, 10f}, history.closes, 0f);
+    }
+
+    @Test
+    public void datesBeforeTheEpoch() {
+        assertRoundTrip(new long[]{-3 * DAY, -DAY, DAY}, new float[]{1f, 2f, 3f});
+    }
+
+    @Test
+    public void specialCloses() {
+        assertRoundTrip(
+                new long[]{START, START + DAY, START + 2 * DAY, START + 3 * DAY, START + 4 * DAY,
+                        START + 5 * DAY, START + 6 * DAY, START + 7 * DAY},
+                new float[]{Float.NaN, 0f, -0f, -12.5f, Float.POSITIVE_INFINITY,
+                        Float.NEGATIVE_INFINITY, Float.MIN_VALUE, Float.MAX_VALUE});
+    }
+
+    @Test
+    public void invalidMarker() {
+        byte[] marker = HistoryCodec.invalidMarker();
+
+        assertTrue(HistoryCodec.isInvalid(marker));
+        assertEquals(0, HistoryCodec.decode(marker).size());
+        assertEquals(0L, HistoryCodec.lastDate(marker));
+    }
+
+    @Test
+    public void missingAndTruncatedDataAreInvalid() {
+        assertTrue(HistoryCodec.isInvalid(null));
+        assertTrue(HistoryCodec.isInvalid(new byte[3]));
+        assertEquals(0L, HistoryCodec.lastDate(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeRejectsNull() {
+        HistoryCodec.decode(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeRejectsTruncatedStream() {
+        byte[] encoded = HistoryCodec.encode(new long[]{START, START + DAY, START + 5 * DAY},
+                new float[]{1f, 2f, 3f}, 3);
+        byte[] truncated = new byte[encoded.length - 2];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+        HistoryCodec.decode(truncated);
+    }
+
+    @Test
+    public void legacyTextSkipsMalformedLines() {
+        String text = START + ", 10.5\n"
+                + "garbage\n"
+                + (START + DAY) + ", not a number\n"
+                + (START + 2 * DAY) + ", 11.25\n";
+
+        HistoryCodec.History history = HistoryCodec.decode(HistoryCodec.fromLegacyText(text));
+
+        assertArrayEquals(new long[]{START, START + 2 * DAY}, history.dates);
+        assertArrayEquals(new float[]{10.5f, 11.25f}, history.closes, 0f);
+    }
+
+    private static void assertRoundTrip(long[] dates, float[] closes) {
+        byte[] encoded = HistoryCodec.encode(dates, closes, dates.length);
+        HistoryCodec.History history = HistoryCodec.decode(encoded);
+
+        assertFalse(HistoryCodec.isInvalid(encoded));
+        assertArrayEquals(dates, history.dates);
+        assertEquals(closes.length, history.closes.length);
+        for (int i = 0; i < closes.length; i++) {
+            assertEquals("close " + i, Float.floatToRawIntBits(closes[i]),
+                    Float.floatToRawIntBits(history.closes[i]));
+        }
+        assertEquals(dates[dates.length - 1], HistoryCodec.lastDate(encoded));
+    }
+}
@@ -0,0 +1,148 @@
+package com.udacity.stockhawk.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.udacity.stockhawk.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times the storage layer on a quotes table filled with 10k symbols and realistic histories.
+ * Each run uses a fresh database, and the test fails when any timing is over its threshold.
+ * <p>
+ * The thresholds are loose enough to absorb differences between build machines, so they catch
+ * regressions of several times rather than noise. Update them in the same change as any storage
+ * change that moves the numbers for good.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class StockProviderPerformanceTest {
+
+    private static final int ROWS = 10000;
+    private static final int HISTORY_ROWS = 104;
+    private static final int INSERT_BATCH = 500;
+    private static final int LOOKUPS = 200;
+    private static final long WEEK = 7L * 24 * 60 * 60 * 1000;
+
+    private static final float BULK_INSERT_THRESHOLD_MILLIS = 30000;
+    private static final float FULL_LIST_THRESHOLD_MILLIS = 3000;
+    private static final float SYMBOL_QUERY_THRESHOLD_MILLIS = 25;
+    private static final float DELETE_THRESHOLD_MILLIS = 10000;
+
+    private ContentResolver resolver;
+    private final Random random = new Random(ROWS);
+    private final List<String> failures = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(StockProvider.class, Contract.AUTHORITY);
+        resolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void providerOperationsStayWithinThresholds() {
+        ContentValues[] batch = new ContentValues[INSERT_BATCH];
+        long insertNanos = 0;
+        for (int start = 0; start < ROWS; start += INSERT_BATCH) {
+            for (int i = 0; i < INSERT_BATCH; i++) {
+                batch[i] = makeQuote(start + i);
+            }
+            long begin = System.nanoTime();
+            resolver.bulkInsert(Contract.Quote.URI, batch);
+            insertNanos += System.nanoTime() - begin;
+        }
+        check("bulkInsert", insertNanos / 1e6f, BULK_INSERT_THRESHOLD_MILLIS);
+
+        long begin = System.nanoTime();
+        Cursor cursor = resolver.query(Contract.Quote.URI,
+                Contract.Quote.LIST_COLUMNS.toArray(new String[]{}),
+                Contract.Quote.COLUMN_SYMBOL + " != ?", new String[]{Contract.Quote.INDEX_SYMBOL},
+                Contract.Quote.COLUMN_SYMBOL);
+        int listed = 0;
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getString(Contract.Quote.POSITION_SYMBOL);
+                cursor.getFloat(Contract.Quote.POSITION_PRICE);
+                listed++;
+            }
+        } finally {
+            cursor.close();
+        }
+        check("fullList", (System.nanoTime() - begin) / 1e6f, FULL_LIST_THRESHOLD_MILLIS);
+        assertEquals(ROWS, listed);
+
+        begin = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            cursor = resolver.query(Contract.Quote.makeUriForStock(symbolFor(random.nextInt(ROWS))),
+                    new String[]{Contract.Quote.COLUMN_HISTORY}, null, null, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals(HISTORY_ROWS, HistoryCodec.decode(cursor.getBlob(0)).size());
+            } finally {
+                cursor.close();
+            }
+        }
+        check("symbolQuery", (System.nanoTime() - begin) / 1e6f / LOOKUPS, SYMBOL_QUERY_THRESHOLD_MILLIS);
+
+        begin = System.nanoTime();
+        int deleted = resolver.delete(Contract.Quote.URI,
+                Contract.Quote.COLUMN_SYMBOL + " != ?", new String[]{Contract.Quote.INDEX_SYMBOL});
+        check("delete", (System.nanoTime() - begin) / 1e6f, DELETE_THRESHOLD_MILLIS);
+        assertEquals(ROWS, deleted);
+
+        assertTrue(failures.toString(), failures.isEmpty());
+    }
+
+    private void check(String metric, float millis, float threshold) {
+        System.out.println(String.format(Locale.US, "%s: %.2f ms (threshold %.0f ms)", metric, millis, threshold));
+        if (millis > threshold) {
+            failures.add(String.format(Locale.US, "%s took %.2f ms, threshold %.0f ms", metric, millis, threshold));
+        }
+    }
+
+    private static String symbolFor(int index) {
+        return String.format(Locale.US, "B%05d", index);
+    }
+
+    /**
+     * A weekly random walk, shaped like the histories the sync stores.
+     */
+    private ContentValues makeQuote(int index) {
+        HistoryCodec.Builder history = new HistoryCodec.Builder();
+        long date = System.currentTimeMillis() - HISTORY_ROWS * WEEK;
+        float close = 10 + random.nextFloat() * 200;
+        for (int i = 0; i < HISTORY_ROWS; i++) {
+            close = Math.max(0.01f, close * (1 + (float) random.nextGaussian() * 0.03f));
+            // Yahoo prices are quoted to the cent
+            history.add(date, Math.round(close * 100) / 100f);
+            date += WEEK;
+        }
+
+        float change = (float) random.nextGaussian() * close * 0.01f;
+        ContentValues values = new ContentValues();
+        values.put(Contract.Quote.COLUMN_SYMBOL, symbolFor(index));
+        values.put(Contract.Quote.COLUMN_NAME, "Benchmark Holdings " + index);
+        values.put(Contract.Quote.COLUMN_PRICE, close);
+        values.put(Contract.Quote.COLUMN_ABSOLUTE_CHANGE, change);
+        values.put(Contract.Quote.COLUMN_PERCENTAGE_CHANGE, change / close * 100);
+        values.put(Contract.Quote.COLUMN_LAST_UPDATED, System.currentTimeMillis());
+        values.put(Contract.Quote.COLUMN_HISTORY, history.build());
+        return values;
+    }
+}